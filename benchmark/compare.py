@@ -0,0 +1,45 @@
+#!/usr/bin/env python3
+import json
+import sys
+
+
+def load(path):
+    with open(path) as f:
+        results = {}
+        for run in json.load(f):
+            params = run.get('params') or {}
+            name = run['benchmark'].rsplit('.', 2)[-2] + '.' + run['benchmark'].rsplit('.', 1)[-1]
+            if params:
+                name += ' [' + ', '.join('%s=%s' % item for item in sorted(params.items())) + ']'
+            metric = run['primaryMetric']
+            results[name] = (metric['score'], metric['scoreError'], metric['scoreUnit'])
+            for secondary, metric in (run.get('secondaryMetrics') or {}).items():
+                results[name + ' ' + secondary] = per_iteration(metric)
+        return results
+
+
+def per_iteration(metric):
+    values = [value for fork in metric.get('rawData') or [] for value in fork]
+    if not values:
+        return metric['score'], 0, metric['scoreUnit']
+    return sum(values) / len(values), (max(values) - min(values)) / 2, metric['scoreUnit']
+
+
+def main(base_path, candidate_path):
+    base = load(base_path)
+    candidate = load(candidate_path)
+    width = max(len(name) for name in base)
+    for name in sorted(base):
+        if name not in candidate:
+            continue
+        base_score, base_error, unit = base[name]
+        score, error, _ = candidate[name]
+        change = (score - base_score) / base_score * 100 if base_score else 0
+        overlap = abs(score - base_score) <= base_error + error
+        print('%-*s %12.3f -> %12.3f %-8s %+7.1f%% %s' % (width, name, base_score, score, unit, change, '' if overlap else '*'))
+
+
+if __name__ == '__main__':
+    if len(sys.argv) != 3:
+        sys.exit('usage: compare.py base.json candidate.json')
+    main(sys.argv[1], sys.argv[2])
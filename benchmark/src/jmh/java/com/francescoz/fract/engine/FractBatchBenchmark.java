@@ -0,0 +1,98 @@
+package com.francescoz.fract.engine;
+
+import com.francescoz.fract.utils.FractColor;
+import com.francescoz.fract.utils.FractOrigin;
+import com.francescoz.fract.utils.FractPixel;
+import com.francescoz.fract.utils.FractSizing;
+import com.francescoz.fract.utils.FractTransform;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+@State(Scope.Thread)
+public class FractBatchBenchmark {
+
+    private static final int PAGE_SIZE = 1024;
+    private static final int DRAWABLES_PER_PAGE = 64;
+
+    @Param({"1000"})
+    public int sprites;
+    @Param({"1", "4"})
+    public int pages;
+    @Param({"128"})
+    public int spriteBufferSize;
+    @Param({"0", "8"})
+    public int hullVertices;
+
+    private FractBatch batch;
+    private FractScreen.Viewport viewport;
+    private FractResources.Drawable[] drawables;
+    private FractTransform[] transforms;
+    private FractColor color;
+
+    @Setup
+    public void setup() {
+        NullGL gl = new NullGL();
+        batch = new FractBatch(gl, spriteBufferSize);
+        batch.create();
+        FractDrawablePack[] packs = new FractDrawablePack[pages];
+        ByteBuffer data = ByteBuffer.allocate(PAGE_SIZE * PAGE_SIZE * 4);
+        for (int p = 0; p < pages; p++) {
+            FractDrawablePack.PackedDrawable[] packedDrawables = new FractDrawablePack.PackedDrawable[DRAWABLES_PER_PAGE];
+            int cell = PAGE_SIZE / 8;
+            float[] hull = hullVertices == 0 ? null : createHull(hullVertices);
+            for (int d = 0; d < DRAWABLES_PER_PAGE; d++)
+                packedDrawables[d] = new FractDrawablePack.PackedDrawable("p" + p + "d" + d, (d % 8) * cell, (d / 8) * cell, cell, cell, d % 3 == 0, hull);
+            packs[p] = new FractDrawablePack(packedDrawables, PAGE_SIZE, PAGE_SIZE, FractDrawablePack.Format.RGBA_8888, data.duplicate(), null);
+        }
+        FractResources resources = FractResources.create(gl, new FractResources.PackedResourceDef(packs, new long[pages], 0, new FractPixel(1080, 1920), FractResourcesDef.Filter.DEFAULT, false));
+        Random random = new Random(42);
+        drawables = new FractResources.Drawable[sprites];
+        transforms = new FractTransform[sprites];
+        for (int i = 0; i < sprites; i++) {
+            drawables[i] = resources.getDrawable("p" + random.nextInt(pages) + "d" + random.nextInt(DRAWABLES_PER_PAGE));
+            FractTransform transform = new FractTransform();
+            transform.translation.set(random.nextFloat(), random.nextFloat() * 1.7f);
+            transform.scale.set(0.05f + random.nextFloat() * 0.1f);
+            transform.rotation = random.nextInt(4) == 0 ? random.nextFloat() * 360 : 0;
+            transforms[i] = transform;
+        }
+        viewport = new FractScreen.Viewport();
+        viewport.size(1080, 1920);
+        color = new FractColor.RGB(1, 0.5f, 0.25f, 0.75f);
+    }
+
+    private static float[] createHull(int vertices) {
+        float[] hull = new float[vertices * 2];
+        double radius = 0.5 / Math.cos(Math.PI / vertices);
+        for (int i = 0; i < vertices; i++) {
+            double angle = 2 * Math.PI * i / vertices;
+            hull[i * 2] = (float) Math.min(Math.max(0.5 + radius * Math.cos(angle), 0), 1);
+            hull[i * 2 + 1] = (float) Math.min(Math.max(0.5 + radius * Math.sin(angle), 0), 1);
+        }
+        return hull;
+    }
+
+    @Benchmark
+    public void drawFrame() {
+        for (int i = 0; i < sprites; i++)
+            batch.draw(drawables[i], viewport, color, transforms[i], FractSizing.FIXED_WH, FractOrigin.CENTER, FractOrigin.CENTER);
+        batch.flush(FractBatch.FLUSH_FRAME);
+        batch.endFrame();
+    }
+
+    @Benchmark
+    public void drawFrameDefaults() {
+        for (int i = 0; i < sprites; i++)
+            batch.draw(drawables[i], viewport, null, transforms[i], null, null, null);
+        batch.flush(FractBatch.FLUSH_FRAME);
+        batch.endFrame();
+    }
+
+}
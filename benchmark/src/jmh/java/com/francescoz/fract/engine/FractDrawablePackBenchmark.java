@@ -0,0 +1,140 @@
+package com.francescoz.fract.engine;
+
+import android.graphics.Canvas;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+@State(Scope.Thread)
+public class FractDrawablePackBenchmark {
+
+    private static final int MAXIMUM_SIZE = 4096;
+    private static final int BORDER = 4;
+
+    @Param({"realistic", "adversarial"})
+    public String set;
+    @Param({"100", "1000", "2000"})
+    public int drawables;
+    @Param({"maxrects", "skyline"})
+    public String packer;
+
+    private FractResourcesDef.Drawable[] drawableDefs;
+    private FractPacker.Factory packerFactory;
+    private double occupancy;
+
+    static FractResourcesDef.Drawable[] createRealistic(int count, long seed) {
+        Random random = new Random(seed);
+        FractResourcesDef.Drawable[] drawableDefs = new FractResourcesDef.Drawable[count];
+        for (int i = 0; i < count; i++) {
+            int kind = random.nextInt(20);
+            int width, height;
+            if (kind < 14) {
+                width = 16 + random.nextInt(48);
+                height = 16 + random.nextInt(48);
+            } else if (kind < 18) {
+                width = 24 + random.nextInt(200);
+                height = 20 + random.nextInt(40);
+            } else {
+                width = 128 + random.nextInt(128);
+                height = 128 + random.nextInt(128);
+            }
+            drawableDefs[i] = new SizedDrawable(i, width, height);
+        }
+        return drawableDefs;
+    }
+
+    static FractResourcesDef.Drawable[] createAdversarial(int count, long seed) {
+        Random random = new Random(seed);
+        FractResourcesDef.Drawable[] drawableDefs = new FractResourcesDef.Drawable[count];
+        for (int i = 0; i < count; i++) {
+            int width, height;
+            switch (i % 4) {
+                case 0:
+                    width = 1 + random.nextInt(3);
+                    height = 64 + random.nextInt(400);
+                    break;
+                case 1:
+                    width = 64 + random.nextInt(400);
+                    height = 1 + random.nextInt(3);
+                    break;
+                case 2:
+                    width = height = 65;
+                    break;
+                default:
+                    width = 3 + random.nextInt(120);
+                    height = 3 + random.nextInt(120);
+                    break;
+            }
+            drawableDefs[i] = new SizedDrawable(i, width, height);
+        }
+        return drawableDefs;
+    }
+
+    static float getOccupancy(FractDrawablePack.PackedBitmap[] layout) {
+        if (layout == null)
+            return 0;
+        long used = 0;
+        int width = 1, height = 1;
+        for (FractDrawablePack.PackedBitmap packedBitmap : layout) {
+            used += (long) (packedBitmap.bottomRightVertex.x - packedBitmap.topLeftVertex.x) * (packedBitmap.bottomRightVertex.y - packedBitmap.topLeftVertex.y);
+            while (width < packedBitmap.bottomRightVertex.x)
+                width *= 2;
+            while (height < packedBitmap.bottomRightVertex.y)
+                height *= 2;
+        }
+        return used / (float) ((long) width * height);
+    }
+
+    @Setup
+    public void setup() {
+        drawableDefs = set.equals("realistic") ? createRealistic(drawables, 42) : createAdversarial(drawables, 42);
+        packerFactory = packer.equals("skyline") ? FractPacker.Skyline.FACTORY : FractPacker.MaxRects.FACTORY;
+        occupancy = getOccupancy(FractDrawablePack.layout(drawableDefs, MAXIMUM_SIZE, BORDER, packerFactory));
+    }
+
+    @Benchmark
+    public Object layout(Counters counters) {
+        counters.occupancy = occupancy;
+        return FractDrawablePack.layout(drawableDefs, MAXIMUM_SIZE, BORDER, packerFactory);
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+
+        public double occupancy;
+
+    }
+
+    static final class SizedDrawable extends FractResourcesDef.Drawable {
+
+        private final int width, height;
+
+        SizedDrawable(int index, int width, int height) {
+            super(0, "drawable" + index);
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public void draw(Canvas canvas) {
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+    }
+
+}
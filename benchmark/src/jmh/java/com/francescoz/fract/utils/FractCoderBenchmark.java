@@ -0,0 +1,58 @@
+package com.francescoz.fract.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+@State(Scope.Thread)
+public class FractCoderBenchmark {
+
+    @Param({"100", "2000"})
+    public int nodes;
+
+    private FractCoder coder;
+    private String encoded;
+
+    @Setup
+    public void setup() throws IOException {
+        coder = new FractCoder();
+        FractCoder.Node packs = new FractCoder.Node();
+        for (int i = 0; i < nodes; i++) {
+            FractCoder.Node node = new FractCoder.Node();
+            node.stringData.put("key", "drawable" + i);
+            node.booleanData.put("rotated", i % 2 == 0);
+            node.putEncodable("topLeftVertex", new FractPixel(i, i * 2));
+            node.putEncodable("bottomRightVertex", new FractPixel(i + 64, i * 2 + 32));
+            node.floatData.put("scale", i * 0.5f);
+            packs.nodeData.put("drw" + i, node);
+        }
+        coder.getNodeRoot().nodeData.put("packs", packs);
+        coder.getNodeRoot().stringData.put("coderTag", "benchmark");
+        encoded = write();
+    }
+
+    @Benchmark
+    public String write() throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        BufferedWriter bufferedWriter = new BufferedWriter(stringWriter);
+        coder.write(bufferedWriter);
+        bufferedWriter.flush();
+        return stringWriter.toString();
+    }
+
+    @Benchmark
+    public FractCoder parse() throws IOException {
+        FractCoder parsed = new FractCoder();
+        parsed.parseAndReplace(new BufferedReader(new StringReader(encoded)));
+        return parsed;
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.francescoz.fract.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+public class FractColorBenchmark {
+
+    private FractColor.RGB color;
+    private int packed;
+
+    @Setup
+    public void setup() {
+        color = new FractColor.RGB(0.25f, 0.5f, 0.75f, 0.9f);
+        packed = 0x80FF4020;
+    }
+
+    @Benchmark
+    public int packInt() {
+        return color.packInt();
+    }
+
+    @Benchmark
+    public float packFloat() {
+        return color.packFloat();
+    }
+
+    @Benchmark
+    public float packFloatStatic() {
+        return FractColor.packFloat(packed);
+    }
+
+    @Benchmark
+    public FractColor.RGB setPacked() {
+        color.set(packed);
+        return color;
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.francescoz.fract.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+public class FractInputBenchmark {
+
+    @Param({"1", "8"})
+    public int listeners;
+
+    private FractInput.Dispatcher dispatcher;
+    private FractInput.FingerDispatcher fingerDispatcher;
+    private float position;
+
+    @Setup
+    public void setup() {
+        dispatcher = new FractInput.Dispatcher();
+        fingerDispatcher = new FractInput.FingerDispatcher();
+        for (int i = 0; i < listeners; i++) {
+            dispatcher.add(new CountingListener());
+            fingerDispatcher.add(new CountingListener());
+        }
+    }
+
+    @Benchmark
+    public FractInput.Dispatcher dispatchGesture() {
+        position += 0.001f;
+        dispatcher.onTouchDown(0, position, position);
+        for (int i = 0; i < 8; i++)
+            dispatcher.onTouchMoved(0, position + i, position);
+        dispatcher.onTouchUp(0, position, position);
+        return dispatcher;
+    }
+
+    @Benchmark
+    public FractInput.FingerDispatcher dispatchMultiTouchGesture() {
+        position += 0.001f;
+        for (int f = 0; f < 3; f++)
+            fingerDispatcher.onTouchDown(f, position, position);
+        for (int i = 0; i < 8; i++)
+            for (int f = 0; f < 3; f++)
+                fingerDispatcher.onTouchMoved(f, position + i, position + f);
+        for (int f = 0; f < 3; f++)
+            fingerDispatcher.onTouchUp(f, position, position);
+        return fingerDispatcher;
+    }
+
+    private static final class CountingListener implements FractInput.Listener {
+
+        private int events;
+
+        @Override
+        public void onTouchDown(int pointer, float x, float y) {
+            events++;
+        }
+
+        @Override
+        public void onTouchMoved(int pointer, float x, float y) {
+            events++;
+        }
+
+        @Override
+        public void onTouchUp(int pointer, float x, float y) {
+            events++;
+        }
+
+        @Override
+        public void onTouchCancelled() {
+            events++;
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.francescoz.fract.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+public class FractMatrixBenchmark {
+
+    private FractMatrix matrix;
+    private FractTransform transform;
+    private FractTransform parentTransform;
+    private float[] quad;
+    private float[] points;
+
+    @Setup
+    public void setup() {
+        matrix = new FractMatrix();
+        parentTransform = new FractTransform();
+        parentTransform.translation.set(0.25f, -0.5f);
+        parentTransform.rotation = 15;
+        transform = new FractTransform();
+        transform.translation.set(1, 2);
+        transform.scale.set(0.5f, 2);
+        transform.rotation = 30;
+        transform.parent = parentTransform;
+        quad = new float[]{-0.5f, 0.5f, 0.5f, 0.5f, -0.5f, -0.5f, 0.5f, -0.5f};
+        points = new float[2048];
+        for (int i = 0; i < points.length; i++)
+            points[i] = i * 0.001f;
+    }
+
+    @Benchmark
+    public FractMatrix concatScale() {
+        matrix.identity();
+        matrix.concat(0.5f, 0.25f, 2, 3);
+        return matrix;
+    }
+
+    @Benchmark
+    public FractMatrix concatRotation() {
+        matrix.identity();
+        matrix.concat(0.5f, 0.25f, 30, 2, 3);
+        return matrix;
+    }
+
+    @Benchmark
+    public FractMatrix concatTransformChain() {
+        matrix.identity();
+        matrix.concat(transform);
+        return matrix;
+    }
+
+    @Benchmark
+    public float[] transformQuad() {
+        matrix.identity();
+        matrix.concat(transform);
+        matrix.transformArray(quad);
+        return quad;
+    }
+
+    @Benchmark
+    public float[] transformPoints() {
+        matrix.transformArray(points);
+        return points;
+    }
+
+}
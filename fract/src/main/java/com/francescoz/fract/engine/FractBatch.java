@@ -12,22 +12,30 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
+import java.util.Arrays;
 
 class FractBatch {
 
     private static final int POSITION_ATTRIB_LOC = 0;
     private static final int COLOR_ATTRIB_LOC = 1;
     private static final int TEXTURECOORD_ATTRIB_LOC = 2;
-    private static final float[] QUAD_VERTICES;
     private static final String POSITION_ATTRIB_NAME = "a_position";
     private static final String COLOR_ATTRIB_NAME = "a_color";
     private static final String TEXTURECOORD_ATTRIB_NAME = "a_texturecoord";
     private static final String TEXTURE_UNIFORM_NAME = "u_texture";
+    private static final String ALPHA_TEXTURE_UNIFORM_NAME = "u_alphatexture";
+    private static final String ALPHA_MAP_UNIFORM_NAME = "u_alphamap";
     private static final String VERTEX_SHADER_SOURCE;
     private static final String FRAGMENT_SHADER_SOURCE;
+    private static final String SPLIT_ALPHA_FRAGMENT_SHADER_SOURCE;
     private static final float DEFAULT_COLOR_PACKED = FractColor.packFloat(FractColor.WHITE);
     private static final float[] SCREEN_MAP_VERTICES;
     private static final FractResourcesDef.Filter FBO_FILTER = new FractResourcesDef.Filter(false, false);
+    static final String FLUSH_FRAME = "FractBatch.flush (end of frame)";
+    private static final String FLUSH_TEXTURE = "FractBatch.flush (texture switch)";
+    private static final String FLUSH_FULL = "FractBatch.flush (buffer full)";
+    private static final String FLUSH_MASK = "FractBatch.flush (mask pass)";
+    private static final String FLUSH_SCREEN_MAP = "FractBatch.flush (mask composition)";
 
     static {
         VERTEX_SHADER_SOURCE =
@@ -42,13 +50,19 @@ class FractBatch {
                         "gl_Position = vec4(" + POSITION_ATTRIB_NAME + ", 0.0, 1.0 ); }\n";
         FRAGMENT_SHADER_SOURCE =
                 "uniform sampler2D " + TEXTURE_UNIFORM_NAME + ";\n" +
+                        "uniform lowp float " + ALPHA_TEXTURE_UNIFORM_NAME + ";\n" +
                         "varying lowp vec4 v_color;\n" +
                         "varying lowp vec2 v_textcoord;\n" +
                         "void main () {\n" +
-                        "gl_FragColor = texture2D(" + TEXTURE_UNIFORM_NAME + ", v_textcoord) * v_color; }\n";
-        QUAD_VERTICES = new float[]{
-                -0.5f, 0.5f, 0.5f, 0.5f, -0.5f, -0.5f, 0.5f, -0.5f
-        };
+                        "lowp vec4 texel = texture2D(" + TEXTURE_UNIFORM_NAME + ", v_textcoord);\n" +
+                        "gl_FragColor = vec4(texel.rgb + " + ALPHA_TEXTURE_UNIFORM_NAME + ", texel.a) * v_color; }\n";
+        SPLIT_ALPHA_FRAGMENT_SHADER_SOURCE =
+                "uniform sampler2D " + TEXTURE_UNIFORM_NAME + ";\n" +
+                        "uniform sampler2D " + ALPHA_MAP_UNIFORM_NAME + ";\n" +
+                        "varying lowp vec4 v_color;\n" +
+                        "varying lowp vec2 v_textcoord;\n" +
+                        "void main () {\n" +
+                        "gl_FragColor = vec4(texture2D(" + TEXTURE_UNIFORM_NAME + ", v_textcoord).rgb, texture2D(" + ALPHA_MAP_UNIFORM_NAME + ", v_textcoord).g) * v_color; }\n";
         SCREEN_MAP_VERTICES = new float[]{
                 -1, 1, DEFAULT_COLOR_PACKED, 0, 1,
                 1, 1, DEFAULT_COLOR_PACKED, 1, 1,
@@ -58,67 +72,84 @@ class FractBatch {
     }
 
     private final float[] vertices;
+    private final short[] indices;
     private final FloatBuffer vertexBuffer;
-    private final ShortBuffer indexBuffer;
-    private final int maxSprites;
-    private final float[] quadPositions;
+    private final ShortBuffer quadIndexBuffer, indexBuffer;
+    private final int maxVertices, maxIndices;
+    private final float[] positions;
     private final FractMatrix matrix;
-    private int program;
-    private int spritesInBatch;
-    private int textureUniformLoc;
+    private final FractGL gl;
+    private int program, splitAlphaProgram, activeProgram;
+    private int quadIndexBufferID, indexBufferID, boundIndexBufferID;
+    private int spritesInBatch, verticesInBatch, indicesInBatch;
+    private boolean polygonal;
+    private int textureUniformLoc, alphaTextureUniformLoc, splitTextureUniformLoc;
+    private boolean alphaTexture;
+    private FractResources.Texture boundAlphaTexture;
+    private int alphaUnit;
     private FractResources.Texture[] units;
     private int last;
     private int current;
+    private int drawCalls, spritesDrawn, textureBinds;
+    private long frame;
+    private int lastDrawCalls, lastSpritesDrawn, lastTextureBinds;
 
-    FractBatch(int maxSprites) {
-        this.maxSprites = maxSprites;
-        int floatCount = 5 * 4 * maxSprites;
+    FractBatch(FractGL gl, int maxSprites) {
+        this.gl = gl;
+        maxVertices = Math.max(4 * maxSprites, FractHull.MAX_VERTICES);
+        maxIndices = 3 * maxVertices;
+        int floatCount = 5 * maxVertices;
         vertices = new float[floatCount];
         ByteBuffer vbb = ByteBuffer.allocateDirect(floatCount * Float.SIZE / 8);
         vbb.order(ByteOrder.nativeOrder());
         vertexBuffer = vbb.asFloatBuffer();
-        int shortCount = 6 * maxSprites;
-        ByteBuffer ibb = ByteBuffer.allocateDirect(shortCount * Short.SIZE / 8);
-        ibb.order(ByteOrder.nativeOrder());
-        indexBuffer = ibb.asShortBuffer();
-        indexBuffer.position(0);
-        short[] indices = new short[shortCount];
+        int maxQuads = maxVertices / 4;
+        int shortCount = 6 * maxQuads;
+        ByteBuffer qibb = ByteBuffer.allocateDirect(shortCount * Short.SIZE / 8);
+        qibb.order(ByteOrder.nativeOrder());
+        quadIndexBuffer = qibb.asShortBuffer();
+        quadIndexBuffer.position(0);
+        short[] quadIndices = new short[shortCount];
         int i = 0;
-        for (int q = 0; q < maxSprites; q++) {
+        for (int q = 0; q < maxQuads; q++) {
             int qn = q * 4;
-            indices[i++] = (short) (qn);
-            indices[i++] = (short) (qn + 1);
-            indices[i++] = (short) (qn + 2);
-            indices[i++] = (short) (qn + 2);
-            indices[i++] = (short) (qn + 1);
-            indices[i++] = (short) (qn + 3);
+            quadIndices[i++] = (short) (qn);
+            quadIndices[i++] = (short) (qn + 1);
+            quadIndices[i++] = (short) (qn + 2);
+            quadIndices[i++] = (short) (qn + 2);
+            quadIndices[i++] = (short) (qn + 1);
+            quadIndices[i++] = (short) (qn + 3);
         }
-        indexBuffer.put(indices, 0, shortCount);
+        quadIndexBuffer.put(quadIndices, 0, shortCount);
+        indices = new short[maxIndices];
+        ByteBuffer ibb = ByteBuffer.allocateDirect(maxIndices * Short.SIZE / 8);
+        ibb.order(ByteOrder.nativeOrder());
+        indexBuffer = ibb.asShortBuffer();
         program = 0;
-        quadPositions = new float[8];
+        positions = new float[2 * FractHull.MAX_VERTICES];
         matrix = new FractMatrix();
     }
 
-    private static int createShader(int type, String source) {
-        int shader = GLES20.glCreateShader(type);
+    private int createShader(int type, String source) {
+        int shader = gl.glCreateShader(type);
         if (shader == 0) {
             throw new RuntimeException("Shader not created");
         }
-        GLES20.glShaderSource(shader, source);
-        GLES20.glCompileShader(shader);
+        gl.glShaderSource(shader, source);
+        gl.glCompileShader(shader);
         int[] status = new int[1];
-        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+        gl.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
         if (status[0] == 0) {
-            GLES20.glDeleteShader(shader);
-            throw new RuntimeException("Shader not compiled: \n" + GLES20.glGetShaderInfoLog(shader));
+            gl.glDeleteShader(shader);
+            throw new RuntimeException("Shader not compiled: \n" + gl.glGetShaderInfoLog(shader));
         }
         return shader;
     }
 
     private void unbind(int unit) {
         units[unit] = null;
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + unit);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        gl.glActiveTexture(GLES20.GL_TEXTURE0 + unit);
+        gl.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
     }
 
     private void bind(FractResources.Texture texture) {
@@ -129,78 +160,163 @@ class FractBatch {
             }
         units[last] = texture;
         texture.bind(last);
+        textureBinds++;
         current = last;
         last = (last + 1) % units.length;
     }
 
-    void create() {
-        if (program != 0)
-            destroy(program);
-        program = GLES20.glCreateProgram();
+    void resetTextures() {
+        Arrays.fill(units, null);
+        boundAlphaTexture = null;
+    }
+
+    void restoreTexture() {
+        FractResources.Texture texture = units[current];
+        gl.glBindTexture(GLES20.GL_TEXTURE_2D, texture == null ? 0 : texture.textureID);
+    }
+
+    private int createProgram(String fragmentShaderSource) {
+        int program = gl.glCreateProgram();
+
         if (program == 0)
             throw new RuntimeException("Program not created");
         int vs = createShader(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER_SOURCE);
-        int fs = createShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER_SOURCE);
-        GLES20.glAttachShader(program, vs);
-        GLES20.glAttachShader(program, fs);
-        GLES20.glBindAttribLocation(program, POSITION_ATTRIB_LOC, POSITION_ATTRIB_NAME);
-        GLES20.glBindAttribLocation(program, COLOR_ATTRIB_LOC, COLOR_ATTRIB_NAME);
-        GLES20.glBindAttribLocation(program, TEXTURECOORD_ATTRIB_LOC, TEXTURECOORD_ATTRIB_NAME);
-        GLES20.glLinkProgram(program);
-        GLES20.glDetachShader(program, vs);
-        GLES20.glDetachShader(program, fs);
-        GLES20.glDeleteShader(vs);
-        GLES20.glDeleteShader(fs);
+        int fs = createShader(GLES20.GL_FRAGMENT_SHADER, fragmentShaderSource);
+        gl.glAttachShader(program, vs);
+        gl.glAttachShader(program, fs);
+        gl.glBindAttribLocation(program, POSITION_ATTRIB_LOC, POSITION_ATTRIB_NAME);
+        gl.glBindAttribLocation(program, COLOR_ATTRIB_LOC, COLOR_ATTRIB_NAME);
+        gl.glBindAttribLocation(program, TEXTURECOORD_ATTRIB_LOC, TEXTURECOORD_ATTRIB_NAME);
+        gl.glLinkProgram(program);
+        gl.glDetachShader(program, vs);
+        gl.glDetachShader(program, fs);
+        gl.glDeleteShader(vs);
+        gl.glDeleteShader(fs);
         int[] status = new int[1];
-        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+        gl.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
         if (status[0] == 0) {
-            GLES20.glDeleteProgram(program);
-            throw new RuntimeException("Program not linked: \n" + GLES20.glGetProgramInfoLog(program));
+            gl.glDeleteProgram(program);
+            throw new RuntimeException("Program not linked: \n" + gl.glGetProgramInfoLog(program));
+        }
+        return program;
+    }
+
+    void create() {
+        if (program != 0) {
+            destroy(program);
+            destroy(splitAlphaProgram);
         }
-        textureUniformLoc = GLES20.glGetUniformLocation(program, TEXTURE_UNIFORM_NAME);
-        int[] buffer = new int[1];
-        GLES20.glGenBuffers(1, buffer, 0);
-        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, buffer[0]);
-        GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, 6 * maxSprites * Short.SIZE / 8, indexBuffer.position(0), GLES20.GL_STATIC_DRAW);
-        GLES20.glEnable(GLES20.GL_BLEND);
-        GLES20.glBlendEquation(GLES20.GL_FUNC_ADD);
-        GLES20.glDepthMask(false);
+        program = createProgram(FRAGMENT_SHADER_SOURCE);
+        splitAlphaProgram = createProgram(SPLIT_ALPHA_FRAGMENT_SHADER_SOURCE);
+        textureUniformLoc = gl.glGetUniformLocation(program, TEXTURE_UNIFORM_NAME);
+        alphaTextureUniformLoc = gl.glGetUniformLocation(program, ALPHA_TEXTURE_UNIFORM_NAME);
+        alphaTexture = false;
+        splitTextureUniformLoc = gl.glGetUniformLocation(splitAlphaProgram, TEXTURE_UNIFORM_NAME);
+        int[] buffers = new int[2];
+        gl.glGenBuffers(2, buffers, 0);
+        quadIndexBufferID = buffers[0];
+        indexBufferID = buffers[1];
+        gl.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, quadIndexBufferID);
+        gl.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, quadIndexBuffer.capacity() * Short.SIZE / 8, quadIndexBuffer.position(0), GLES20.GL_STATIC_DRAW);
+        boundIndexBufferID = quadIndexBufferID;
+        gl.glEnable(GLES20.GL_BLEND);
+        gl.glBlendEquation(GLES20.GL_FUNC_ADD);
+        gl.glDepthMask(false);
         resetBlendFunc();
-        spritesInBatch = 0;
+        spritesInBatch = verticesInBatch = indicesInBatch = 0;
+        polygonal = false;
         int[] maxTextureUnits = new int[1];
-        GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_IMAGE_UNITS, maxTextureUnits, 0);
-        units = new FractResources.Texture[maxTextureUnits[0]];
-        GLES20.glUseProgram(program);
+        gl.glGetIntegerv(GLES20.GL_MAX_TEXTURE_IMAGE_UNITS, maxTextureUnits, 0);
+        alphaUnit = maxTextureUnits[0] - 1;
+        units = new FractResources.Texture[alphaUnit];
+        boundAlphaTexture = null;
+        gl.glUseProgram(splitAlphaProgram);
+        gl.glUniform1i(gl.glGetUniformLocation(splitAlphaProgram, ALPHA_MAP_UNIFORM_NAME), alphaUnit);
+        gl.glUseProgram(program);
+        activeProgram = program;
         last = current = 0;
     }
 
     private void resetBlendFunc() {
-        GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        gl.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
     }
 
+    private void useProgram(int program) {
+        if (activeProgram == program)
+            return;
+        gl.glUseProgram(program);
+        activeProgram = program;
+    }
+
+    private void bindAlpha(FractResources.Texture texture) {
+        if (boundAlphaTexture == texture)
+            return;
+        gl.glActiveTexture(GLES20.GL_TEXTURE0 + alphaUnit);
+        gl.glBindTexture(GLES20.GL_TEXTURE_2D, texture.alphaTextureID);
+        gl.glActiveTexture(GLES20.GL_TEXTURE0 + current);
+        boundAlphaTexture = texture;
+        textureBinds++;
+    }
+
+    private void bindIndexBuffer(int bufferID) {
+        if (boundIndexBufferID == bufferID)
+            return;
+        gl.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, bufferID);
+        boundIndexBufferID = bufferID;
+    }
 
-    void flush() {
+
+    void flush(String reason) {
         if (spritesInBatch == 0) return;
-        vertexBuffer.position(0);
-        vertexBuffer.put(vertices, 0, spritesInBatch * 5 * 4);
-        int stride = 5 * Float.SIZE / 8;
-        GLES20.glUniform1i(textureUniformLoc, current);
-        GLES20.glEnableVertexAttribArray(POSITION_ATTRIB_LOC);
-        GLES20.glVertexAttribPointer(POSITION_ATTRIB_LOC, 2, GLES20.GL_FLOAT, false, stride, vertexBuffer.position(0));
-        GLES20.glEnableVertexAttribArray(COLOR_ATTRIB_LOC);
-        GLES20.glVertexAttribPointer(COLOR_ATTRIB_LOC, 4, GLES20.GL_UNSIGNED_BYTE, true, stride, vertexBuffer.position(2));
-        GLES20.glEnableVertexAttribArray(TEXTURECOORD_ATTRIB_LOC);
-        GLES20.glVertexAttribPointer(TEXTURECOORD_ATTRIB_LOC, 2, GLES20.GL_FLOAT, false, stride, vertexBuffer.position(3));
-        GLES20.glDrawElements(GLES20.GL_TRIANGLES, spritesInBatch * 6, GLES20.GL_UNSIGNED_SHORT, 0);
-        spritesInBatch = 0;
+        FractTrace.begin(reason);
+        try {
+            vertexBuffer.position(0);
+            vertexBuffer.put(vertices, 0, verticesInBatch * 5);
+            int stride = 5 * Float.SIZE / 8;
+            FractResources.Texture texture = units[current];
+            if (texture.alphaTextureID != 0) {
+                useProgram(splitAlphaProgram);
+                bindAlpha(texture);
+                gl.glUniform1i(splitTextureUniformLoc, current);
+            } else {
+                useProgram(program);
+                gl.glUniform1i(textureUniformLoc, current);
+                if (texture.alphaOnly != alphaTexture) {
+                    alphaTexture = !alphaTexture;
+                    gl.glUniform1f(alphaTextureUniformLoc, alphaTexture ? 1 : 0);
+                }
+            }
+            gl.glEnableVertexAttribArray(POSITION_ATTRIB_LOC);
+            gl.glVertexAttribPointer(POSITION_ATTRIB_LOC, 2, GLES20.GL_FLOAT, false, stride, vertexBuffer.position(0));
+            gl.glEnableVertexAttribArray(COLOR_ATTRIB_LOC);
+            gl.glVertexAttribPointer(COLOR_ATTRIB_LOC, 4, GLES20.GL_UNSIGNED_BYTE, true, stride, vertexBuffer.position(2));
+            gl.glEnableVertexAttribArray(TEXTURECOORD_ATTRIB_LOC);
+            gl.glVertexAttribPointer(TEXTURECOORD_ATTRIB_LOC, 2, GLES20.GL_FLOAT, false, stride, vertexBuffer.position(3));
+            if (polygonal) {
+                indexBuffer.position(0);
+                indexBuffer.put(indices, 0, indicesInBatch);
+                bindIndexBuffer(indexBufferID);
+                gl.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, indicesInBatch * Short.SIZE / 8, indexBuffer.position(0), GLES20.GL_STREAM_DRAW);
+            } else
+                bindIndexBuffer(quadIndexBufferID);
+            gl.glDrawElements(GLES20.GL_TRIANGLES, indicesInBatch, GLES20.GL_UNSIGNED_SHORT, 0);
+            drawCalls++;
+            spritesDrawn += spritesInBatch;
+            spritesInBatch = verticesInBatch = indicesInBatch = 0;
+            polygonal = false;
+        } finally {
+            FractTrace.end();
+        }
     }
 
     void draw(FractResources.Drawable drawable, FractScreen.Viewport viewport, FractColor color, FractTransform transform, FractSizing sizing, FractOrigin horizontalOrigin, FractOrigin verticalOrigin) {
         if (color != null && color.a <= 0) return;
         FractResources.Texture texture = drawable.texture;
-        float textureAspectRatio = drawable.rotated ? 1.0f / texture.aspectRatio : texture.aspectRatio;
-        for (int i = 0; i < QUAD_VERTICES.length; i++)
-            quadPositions[i] = QUAD_VERTICES[i];
+        float aspectRatio = drawable.aspectRatio;
+        float[] shape = drawable.vertices;
+        int shapeLength = shape.length;
+        for (int i = 0; i < shapeLength; i++)
+            positions[i] = shape[i];
         horizontalOrigin = horizontalOrigin == null ? FractOrigin.CENTER : horizontalOrigin;
         verticalOrigin = verticalOrigin == null ? FractOrigin.CENTER : verticalOrigin;
         matrix.identity();
@@ -209,10 +325,10 @@ class FractBatch {
                 matrix.concat(horizontalOrigin.alpha, verticalOrigin.alpha, 1, 1);
                 break;
             case FIXED_H:
-                matrix.concat(horizontalOrigin.alpha * textureAspectRatio, verticalOrigin.alpha, textureAspectRatio, 1);
+                matrix.concat(horizontalOrigin.alpha * aspectRatio, verticalOrigin.alpha, aspectRatio, 1);
                 break;
             case FIXED_W:
-                float h = 1.0f / textureAspectRatio;
+                float h = 1.0f / aspectRatio;
                 matrix.concat(horizontalOrigin.alpha, verticalOrigin.alpha * h, 1, h);
                 break;
             default:
@@ -220,41 +336,77 @@ class FractBatch {
         }
         if (transform != null) matrix.concat(transform);
         viewport.concat(matrix);
-        matrix.transformArray(quadPositions);
+        matrix.transformArray(positions, shapeLength);
         boolean visibile = false;
-        for (int i = 0; i < 4; i++) {
-            int vi = i * 2;
-            float x = quadPositions[vi];
-            float y = quadPositions[vi + 1];
+        for (int vi = 0; vi < shapeLength; vi += 2) {
+            float x = positions[vi];
+            float y = positions[vi + 1];
             if (x < 1 && x > -1 && y < 1 && y > -1) {
                 visibile = true;
                 break;
             }
         }
         if (!visibile) return;
+        texture.lastUsedFrame = frame;
+        if (!texture.isResident()) {
+            texture.requested = true;
+            return;
+        }
         if (units[current] != texture) {
-            flush();
+            flush(FLUSH_TEXTURE);
             bind(texture);
         }
-        int verticesIndex = 20 * spritesInBatch++;
-        int quadIndex = 0;
+        short[] shapeIndices = drawable.indices;
+        int shapeVertexCount = shapeLength / 2;
+        if (verticesInBatch + shapeVertexCount > maxVertices || indicesInBatch + shapeIndices.length > maxIndices)
+            flush(FLUSH_FULL);
+        int verticesIndex = 5 * verticesInBatch;
+        int positionIndex = 0;
         int textureCoordsIndex = 0;
         float colorPacked = color == null ? DEFAULT_COLOR_PACKED : color.packFloat();
         float[] textureCoords = drawable.textureCoords;
-        for (int v = 0; v < 4; v++) {
-            vertices[verticesIndex++] = quadPositions[quadIndex++];
-            vertices[verticesIndex++] = quadPositions[quadIndex++];
+        for (int v = 0; v < shapeVertexCount; v++) {
+            vertices[verticesIndex++] = positions[positionIndex++];
+            vertices[verticesIndex++] = positions[positionIndex++];
             vertices[verticesIndex++] = colorPacked;
             vertices[verticesIndex++] = textureCoords[textureCoordsIndex++];
             vertices[verticesIndex++] = textureCoords[textureCoordsIndex++];
         }
-        if (spritesInBatch >= maxSprites)
-            flush();
+        for (short index : shapeIndices)
+            indices[indicesInBatch++] = (short) (verticesInBatch + index);
+        verticesInBatch += shapeVertexCount;
+        spritesInBatch++;
+        if (drawable.polygon)
+            polygonal = true;
+    }
+
+    void endFrame() {
+        frame++;
+        lastDrawCalls = drawCalls;
+        lastSpritesDrawn = spritesDrawn;
+        lastTextureBinds = textureBinds;
+        drawCalls = spritesDrawn = textureBinds = 0;
+    }
+
+    long getFrame() {
+        return frame;
+    }
+
+    int getDrawCalls() {
+        return lastDrawCalls;
+    }
+
+    int getSpritesDrawn() {
+        return lastSpritesDrawn;
+    }
+
+    int getTextureBinds() {
+        return lastTextureBinds;
     }
 
     private void destroy(int program) {
-        GLES20.glUseProgram(0);
-        GLES20.glDeleteProgram(program);
+        gl.glUseProgram(0);
+        gl.glDeleteProgram(program);
     }
 
     final class Masker {
@@ -275,56 +427,65 @@ class FractBatch {
             if (maskTexture != null) {
                 textureID[0] = maskTexture.textureID;
                 textureID[1] = maskedTexture.textureID;
-                GLES20.glDeleteTextures(2, textureID, 0);
+                gl.glDeleteTextures(2, textureID, 0);
             }
-            GLES20.glGenTextures(2, textureID, 0);
-            maskTexture = new FractResources.Texture(width, height, FBO_FILTER, textureID[0], GLES20.GL_RGBA);
-            maskedTexture = new FractResources.Texture(width, height, FBO_FILTER, textureID[1], GLES20.GL_RGBA);
+            gl.glGenTextures(2, textureID, 0);
+            maskTexture = new FractResources.Texture(gl, width, height, FBO_FILTER, textureID[0], GLES20.GL_RGBA);
+            maskedTexture = new FractResources.Texture(gl, width, height, FBO_FILTER, textureID[1], GLES20.GL_RGBA);
             int[] fboID = new int[2];
             if (maskFB != 0) {
                 fboID[0] = maskFB;
                 fboID[1] = maskedFB;
-                GLES20.glDeleteFramebuffers(2, fboID, 0);
+                gl.glDeleteFramebuffers(2, fboID, 0);
             }
-            GLES20.glGenFramebuffers(2, fboID, 0);
+            gl.glGenFramebuffers(2, fboID, 0);
             maskFB = fboID[0];
-            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, maskFB);
-            GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D, maskTexture.textureID, 0);
+            gl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, maskFB);
+            gl.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D, maskTexture.textureID, 0);
             maskedFB = fboID[1];
-            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, maskedFB);
-            GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D, maskedTexture.textureID, 0);
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, boundTextureID);
-            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+            gl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, maskedFB);
+            gl.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D, maskedTexture.textureID, 0);
+            gl.glBindTexture(GLES20.GL_TEXTURE_2D, boundTextureID);
+            gl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
         }
 
-        void draw(FractMaskCallback maskCallback, boolean inverted) {
-            flush();
-            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, maskFB);
-            GLES20.glClearColor(0, 0, 0, 0);
-            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
-            maskDrawer.valid = true;
-            maskCallback.drawMask(maskDrawer);
-            maskDrawer.valid = false;
-            flush();
-            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, maskedFB);
-            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
-            maskedDrawer.valid = true;
-            maskCallback.drawMasked(maskedDrawer);
-            maskedDrawer.valid = false;
-            flush();
-            GLES20.glBlendFuncSeparate(GLES20.GL_ZERO, GLES20.GL_ONE, GLES20.GL_ZERO, inverted ? GLES20.GL_ONE_MINUS_SRC_ALPHA : GLES20.GL_SRC_ALPHA);
-            draw(maskTexture);
-            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-            resetBlendFunc();
-            draw(maskedTexture);
+        void draw(FractMaskCallback maskCallback, boolean inverted, FractScreen screen) {
+            FractTrace.begin(FractTrace.MASKER_DRAW);
+            try {
+                maskDrawer.screen = maskedDrawer.screen = screen;
+                flush(FLUSH_MASK);
+                gl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, maskFB);
+                gl.glClearColor(0, 0, 0, 0);
+                gl.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+                maskDrawer.valid = true;
+                maskCallback.drawMask(maskDrawer);
+                maskDrawer.valid = false;
+                flush(FLUSH_MASK);
+                gl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, maskedFB);
+                gl.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+                maskedDrawer.valid = true;
+                maskCallback.drawMasked(maskedDrawer);
+                maskedDrawer.valid = false;
+                flush(FLUSH_MASK);
+                gl.glBlendFuncSeparate(GLES20.GL_ZERO, GLES20.GL_ONE, GLES20.GL_ZERO, inverted ? GLES20.GL_ONE_MINUS_SRC_ALPHA : GLES20.GL_SRC_ALPHA);
+                draw(maskTexture);
+                gl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+                resetBlendFunc();
+                draw(maskedTexture);
+            } finally {
+                FractTrace.end();
+            }
         }
 
         private void draw(FractResources.Texture texture) {
             spritesInBatch = 1;
+            verticesInBatch = 4;
+            indicesInBatch = 6;
+            polygonal = false;
             bind(texture);
             for (int i = 0; i < 20; i++)
                 vertices[i] = SCREEN_MAP_VERTICES[i];
-            flush();
+            flush(FLUSH_SCREEN_MAP);
             unbind(current);
         }
 
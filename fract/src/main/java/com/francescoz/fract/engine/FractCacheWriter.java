@@ -0,0 +1,164 @@
+package com.francescoz.fract.engine;
+
+import android.os.Process;
+import android.util.Log;
+
+import com.francescoz.fract.utils.FractPixel;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+final class FractCacheWriter {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final Comparator<File> MOST_RECENT_FIRST = new Comparator<File>() {
+        @Override
+        public int compare(File lhs, File rhs) {
+            long l = lhs.lastModified();
+            long r = rhs.lastModified();
+            return l > r ? -1 : l < r ? 1 : 0;
+        }
+    };
+
+    private final File file;
+    private final String entryPrefix;
+    private final int maxEntries;
+    private final ExecutorService executor;
+    private Write pending;
+    private FractResources.PackedResourceDef written, mapped;
+
+    FractCacheWriter(File file, int maxEntries) {
+        this.file = file;
+        this.maxEntries = maxEntries;
+        entryPrefix = file.getName() + "-";
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "FractCacheWriter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                FractCacheWriter.this.file.delete();
+                for (File tempFile : list(true))
+                    tempFile.delete();
+            }
+        });
+    }
+
+    File getEntry(FractPixel resolution) {
+        return new File(file.getPath() + "-" + resolution.x + "x" + resolution.y);
+    }
+
+    File[] getEntries() {
+        File[] entries = list(false);
+        Arrays.sort(entries, MOST_RECENT_FIRST);
+        return entries;
+    }
+
+    private File[] list(final boolean temp) {
+        File directory = file.getAbsoluteFile().getParentFile();
+        File[] files = directory == null ? null : directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File candidate) {
+                String name = candidate.getName();
+                return name.startsWith(entryPrefix) && name.endsWith(TEMP_SUFFIX) == temp && candidate.isFile();
+            }
+        });
+        return files == null ? new File[0] : files;
+    }
+
+    private void evict() {
+        File[] entries = getEntries();
+        for (int i = maxEntries; i < entries.length; i++) {
+            Log.d("FractCacheWriter", "Evicting disk cache entry " + entries[i].getName());
+            entries[i].delete();
+        }
+    }
+
+    synchronized void write(FractResources.PackedResourceDef packedResourceDef, int maxTextureSize) {
+        abandon();
+        pending = new Write(packedResourceDef, maxTextureSize, getEntry(packedResourceDef.resolution));
+        executor.execute(pending);
+    }
+
+    synchronized void abandon() {
+        if (pending != null) {
+            pending.abandoned = true;
+            pending = null;
+        }
+    }
+
+    synchronized FractResources.PackedResourceDef takeMapped(FractResources.PackedResourceDef packedResourceDef) {
+        if (written != packedResourceDef)
+            return null;
+        FractResources.PackedResourceDef result = mapped;
+        written = mapped = null;
+        return result;
+    }
+
+    private synchronized void published(Write write, FractResources.PackedResourceDef mapped) {
+        if (pending != write)
+            return;
+        written = write.packedResourceDef;
+        this.mapped = mapped;
+    }
+
+    private synchronized void finished(Write write) {
+        if (pending == write)
+            pending = null;
+    }
+
+    private final class Write implements Runnable {
+
+        private final int maxTextureSize;
+        private final File entry;
+        private final File tempFile;
+        private FractResources.PackedResourceDef packedResourceDef;
+        private volatile boolean abandoned;
+
+        private Write(FractResources.PackedResourceDef packedResourceDef, int maxTextureSize, File entry) {
+            this.packedResourceDef = packedResourceDef;
+            this.maxTextureSize = maxTextureSize;
+            this.entry = entry;
+            tempFile = new File(entry.getPath() + TEMP_SUFFIX);
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (abandoned)
+                    return;
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                long start = System.nanoTime();
+                FractResources.save(packedResourceDef, maxTextureSize, tempFile);
+                if (abandoned || !tempFile.renameTo(entry)) {
+                    tempFile.delete();
+                    return;
+                }
+                Log.d("FractCacheWriter", "Disk cache written in " + (System.nanoTime() - start) / 1000000 + "ms");
+                evict();
+                FractResources.PackedResourceDef mapped = FractResources.load(entry, maxTextureSize);
+                if (mapped != null)
+                    published(this, mapped);
+            } catch (Exception e) {
+                Log.d("FractCacheWriter", "Exception while writing disk cache");
+                e.printStackTrace();
+                tempFile.delete();
+            } finally {
+                packedResourceDef = null;
+                finished(this);
+            }
+        }
+
+    }
+
+}
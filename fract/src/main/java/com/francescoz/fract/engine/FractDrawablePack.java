@@ -3,260 +3,434 @@ package com.francescoz.fract.engine;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Matrix;
+import android.opengl.GLES20;
 
 import com.francescoz.fract.utils.FractCoder;
-import com.francescoz.fract.utils.FractMath;
 import com.francescoz.fract.utils.FractPixel;
 
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class FractDrawablePack {
 
-    private static final Comparator<FractResourcesDef.Drawable> PRIORITY_COMPARATOR = new Comparator<FractResourcesDef.Drawable>() {
+    static final Comparator<FractResourcesDef.Drawable> PRIORITY_COMPARATOR = new Comparator<FractResourcesDef.Drawable>() {
         @Override
         public int compare(FractResourcesDef.Drawable o1, FractResourcesDef.Drawable o2) {
-            return o1.priority - o2.priority;
+            return o1.priority < o2.priority ? -1 : o1.priority > o2.priority ? 1 : 0;
+        }
+    };
+    private static final Comparator<int[]> PAGE_SIZE_COMPARATOR = new Comparator<int[]>() {
+        @Override
+        public int compare(int[] o1, int[] o2) {
+            long area = (long) o1[0] * o1[1] - (long) o2[0] * o2[1];
+            if (area != 0)
+                return area < 0 ? -1 : 1;
+            return Math.abs(o1[0] - o1[1]) - Math.abs(o2[0] - o2[1]);
+        }
+    };
+    private static final Comparator<FractResourcesDef.Drawable> SIZE_COMPARATOR = new Comparator<FractResourcesDef.Drawable>() {
+        @Override
+        public int compare(FractResourcesDef.Drawable o1, FractResourcesDef.Drawable o2) {
+            int longSide = Math.max(o2.getWidth(), o2.getHeight()) - Math.max(o1.getWidth(), o1.getHeight());
+            if (longSide != 0)
+                return longSide;
+            return Math.min(o2.getWidth(), o2.getHeight()) - Math.min(o1.getWidth(), o1.getHeight());
         }
     };
 
     final PackedDrawable[] packedDrawables;
     final Bitmap bitmap;
+    final ByteBuffer data, alphaData;
+    final Format format;
+    final int width, height;
 
 
-    FractDrawablePack(PackedDrawable[] packedDrawables, Bitmap bitmap) {
+    FractDrawablePack(PackedDrawable[] packedDrawables, Bitmap bitmap, Format format) {
         this.packedDrawables = packedDrawables;
         this.bitmap = bitmap;
+        this.format = format;
+        data = alphaData = null;
+        width = bitmap.getWidth();
+        height = bitmap.getHeight();
     }
 
-    private FractDrawablePack(PackedBitmap[] packedBitmaps, boolean halfBits) {
-        this.packedDrawables = packedBitmaps;
-        int w = 0;
-        int h = 0;
-        for (PackedBitmap packedBitmap : packedBitmaps) {
-            FractPixel bottomRightVertex = packedBitmap.bottomRightVertex;
-            if (bottomRightVertex.x > w)
-                w = bottomRightVertex.x;
-            if (bottomRightVertex.y > h)
-                h = bottomRightVertex.y;
-        }
-        int width = (int) Math.pow(2, Math.ceil(Math.log(w) * FractMath.TO_LOG2));
-        int height = (int) Math.pow(2, Math.ceil(Math.log(h) * FractMath.TO_LOG2));
-        bitmap = Bitmap.createBitmap(width, height, halfBits ? Bitmap.Config.ARGB_4444 : Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(bitmap);
-        for (PackedBitmap packedBitmap : packedBitmaps)
-            packedBitmap.draw(canvas);
+    FractDrawablePack(PackedDrawable[] packedDrawables, int width, int height, Format format, ByteBuffer data, ByteBuffer alphaData) {
+        this.packedDrawables = packedDrawables;
+        this.bitmap = null;
+        this.format = format;
+        this.data = data;
+        this.alphaData = alphaData;
+        this.width = width;
+        this.height = height;
     }
 
-    private static void splitAndPack(FractResourcesDef.Drawable[] drawableDefs, int maximumSize, int border, List<FractDrawablePack> packList, boolean halfBits) {
-        FractDrawablePack fullPack = pack(drawableDefs, maximumSize, border, halfBits);
-        if (fullPack != null)
-            packList.add(fullPack);
-        else if (drawableDefs.length < 2)
+    private static int fitPrefix(FractResourcesDef.Drawable[] drawableDefs, int from, int maximumSize, int border, FractPacker packer) {
+        int len = drawableDefs.length;
+        if (fits(drawableDefs, from, len, maximumSize, border, packer))
+            return len;
+        if (!fits(drawableDefs, from, from + 1, maximumSize, border, packer))
             throw new RuntimeException("Unpackable drawable");
-        else if (drawableDefs.length == 2) {
-            packList.add(pack(new FractResourcesDef.Drawable[]{drawableDefs[0]}, maximumSize, border, halfBits));
-            packList.add(pack(new FractResourcesDef.Drawable[]{drawableDefs[1]}, maximumSize, border, halfBits));
-        } else {
-            int firstDiff = drawableDefs[1].priority - drawableDefs[0].priority;
-            int minDiff = firstDiff;
-            int maxDiff = firstDiff;
-            for (int i = 1; i < drawableDefs.length; i++) {
-                int diff = drawableDefs[i].priority - drawableDefs[i - 1].priority;
-                if (diff > maxDiff)
-                    maxDiff = diff;
-                if (diff < minDiff)
-                    minDiff = diff;
-            }
-            if (maxDiff == minDiff)
-                throw new RuntimeException("Unpackable indivisible drawable group");
-            int from = 0;
-            for (int i = 1; i < drawableDefs.length; i++) {
-                if (drawableDefs[i].priority - drawableDefs[i - 1].priority == maxDiff) {
-                    int len = i - from;
-                    FractResourcesDef.Drawable[] part = new FractResourcesDef.Drawable[len];
-                    for (int j = 0; j < len; j++)
-                        part[j] = drawableDefs[j + from];
-                    packList.add(pack(part, maximumSize, border, halfBits));
-                    from = i;
-                }
-            }
-            int len = drawableDefs.length - 1 - from;
-            if (len > 0) {
-                FractResourcesDef.Drawable[] part = new FractResourcesDef.Drawable[len];
-                for (int i = 0; i < len; i++)
-                    part[i] = drawableDefs[i + from];
-                packList.add(pack(part, maximumSize, border, halfBits));
-            }
+        int low = from + 1;
+        int high = len;
+        while (high - low > 1) {
+            int mid = (low + high) >>> 1;
+            if (fits(drawableDefs, from, mid, maximumSize, border, packer))
+                low = mid;
+            else
+                high = mid;
         }
+        for (int i = low; i > from + (low - from) / 2; i--)
+            if (drawableDefs[i].priority != drawableDefs[i - 1].priority)
+                return i;
+        return low;
     }
 
-    static FractDrawablePack[] splitAndPack(FractResourcesDef.Drawable[] drawableDefs, int maximumSize, int border, boolean halfBits) {
-        ArrayList<FractDrawablePack> packList = new ArrayList<>();
-        Arrays.sort(drawableDefs, PRIORITY_COMPARATOR);
-        splitAndPack(drawableDefs, maximumSize, border, packList, halfBits);
-        FractDrawablePack[] packs = new FractDrawablePack[packList.size()];
-        packList.toArray(packs);
-        return packs;
+    private static boolean fits(FractResourcesDef.Drawable[] drawableDefs, int from, int to, int maximumSize, int border, FractPacker packer) {
+        FractResourcesDef.Drawable[] part = Arrays.copyOfRange(drawableDefs, from, to);
+        Arrays.sort(part, SIZE_COMPARATOR);
+        return pack(maximumSize, maximumSize, border, part, packer, null, 0) != null;
     }
 
-    private static FractDrawablePack pack(FractResourcesDef.Drawable[] drawableDefs, int maximumSize, int border, boolean halfBits) {
-        if (drawableDefs.length == 0) throw new RuntimeException("No drawableDefss");
-        ArrayList<Candidate> candidateList = new ArrayList<>();
-        for (FractResourcesDef.Drawable drawableDef : drawableDefs) {
-            candidateList.add(new Candidate(drawableDef, false));
-            if (drawableDef.getHeight() != drawableDef.getWidth())
-                candidateList.add(new Candidate(drawableDef, true));
-        }
-        Collections.sort(candidateList, Candidate.HEIGHT_COMPARATOR);
-        Candidate[] candidates = new Candidate[candidateList.size()];
-        candidateList.toArray(candidates);
-        int area = 0;
-        for (FractResourcesDef.Drawable drawableDef : drawableDefs)
-            area += drawableDef.getWidth() * drawableDef.getHeight();
-        int exp = (int) Math.ceil(Math.log(area) * FractMath.TO_LOG2 / 2.0);
-        int size = 0;
-        PackedBitmap[] packedBitmaps = null;
-        while (packedBitmaps == null && size < maximumSize) {
-            size = (int) Math.pow(2, exp++);
-            packedBitmaps = pack(size, size, border, candidates);
-        }
-        return packedBitmaps == null ? null : new FractDrawablePack(packedBitmaps, halfBits);
+    long getByteCount() {
+        return getByteCount(width, height);
     }
 
-    private static PackedBitmap[] pack(int width, int height, int border, Candidate[] candidates) {
-        int cellsX = 1, cellsY = 1;
-        ArrayList<ArrayList<Boolean>> occupiedCells = new ArrayList<>();
-        ArrayList<Integer> cellsRightX = new ArrayList<>();
-        ArrayList<Integer> cellsBottomY = new ArrayList<>();
-        ArrayList<PackedBitmap> packedBitmapList = new ArrayList<>();
-        occupiedCells.add(new ArrayList<Boolean>());
-        occupiedCells.get(0).add(false);
-        int packWidth = width + border;
-        int packHeight = height + border;
-        cellsRightX.add(packWidth);
-        cellsBottomY.add(packHeight);
-        candidateIterator:
-        for (Candidate candidate : candidates) {
-            if (candidate.shouldSkip(packedBitmapList))
-                continue;
-            int drawableWidth = candidate.getWidth() + border;
-            int drawableHeight = candidate.getHeight() + border;
-            columnIterator:
-            for (int x = 0; x < cellsX; x++) {
-                int columnLeftX = x == 0 ? 0 : cellsRightX.get(x - 1);
-                if (packWidth - columnLeftX < drawableWidth)
-                    if (candidate.shouldReturn())
-                        return null;
-                    else
-                        continue candidateIterator;
-                ArrayList<Boolean> occupiedColumn = occupiedCells.get(x);
-                rowIterator:
-                for (int y = 0; y < cellsY; y++) {
-                    int rowTopY = y == 0 ? 0 : cellsBottomY.get(y - 1);
-                    if (packHeight - rowTopY < drawableHeight)
-                        continue columnIterator;
-                    if (occupiedColumn.get(y))
-                        continue;
-                    int toX = x;
-                    int cellWidth = 0;
-                    while (cellWidth < drawableWidth) {
-                        cellWidth = cellsRightX.get(toX) - columnLeftX;
-                        toX++;
-                    }
-                    int toY = y;
-                    int cellHeight = 0;
-                    while (cellHeight < drawableHeight) {
-                        cellHeight = cellsBottomY.get(toY) - rowTopY;
-                        toY++;
-                    }
-                    for (int cx = x; cx < toX; cx++) {
-                        for (int cy = y; cy < toY; cy++) {
-                            if (occupiedCells.get(cx).get(cy))
-                                continue rowIterator;
-                        }
-                    }
-                    packedBitmapList.add(new PackedBitmap(candidate.drawableDef, columnLeftX, rowTopY, candidate.rotated));
-                    int packedRightX, packedBottomY;
-                    packedRightX = columnLeftX + drawableWidth;
-                    packedBottomY = rowTopY + drawableHeight;
-                    if (cellWidth != drawableWidth) {
-                        cellsX++;
-                        ArrayList<Boolean> newColumn = new ArrayList<>();
-                        newColumn.addAll(occupiedCells.get(toX - 1));
-                        occupiedCells.add(toX - 1, newColumn);
-                        cellsRightX.add(toX - 1, packedRightX);
-                    }
-                    if (cellHeight != drawableHeight) {
-                        cellsY++;
-                        for (ArrayList<Boolean> column : occupiedCells) {
-                            column.add(toY - 1, column.get(toY - 1));
-                        }
-                        cellsBottomY.add(toY - 1, packedBottomY);
-                    }
-                    for (int cx = x; cx < toX; cx++) {
-                        for (int cy = y; cy < toY; cy++) {
-                            occupiedCells.get(cx).set(cy, true);
-                        }
-                    }
-                    continue candidateIterator;
-                }
-            }
-            if (candidate.shouldReturn())
-                return null;
-        }
-        if (packedBitmapList.isEmpty())
-            return null;
-        PackedBitmap[] packedBitmaps = new PackedBitmap[packedBitmapList.size()];
-        packedBitmapList.toArray(packedBitmaps);
-        return packedBitmaps;
+    boolean isRetainable() {
+        return bitmap != null || data != null;
+    }
+
+    long getHeapByteCount() {
+        if (bitmap != null)
+            return (long) bitmap.getRowBytes() * height;
+        return getHeapByteCount(data) + getHeapByteCount(alphaData);
     }
 
+    private static long getHeapByteCount(ByteBuffer buffer) {
+        return buffer == null || buffer instanceof MappedByteBuffer ? 0 : buffer.capacity();
+    }
 
-    private static final class Candidate {
+    long getPowerOfTwoByteCount() {
+        return getByteCount(powerOfTwo(width), powerOfTwo(height));
+    }
 
-        private static final Comparator<? super Candidate> HEIGHT_COMPARATOR = new Comparator<Candidate>() {
-            @Override
-            public int compare(Candidate o1, Candidate o2) {
-                return o2.getHeight() - o1.getHeight();
+    private long getByteCount(int width, int height) {
+        if (format == Format.ETC1)
+            return (long) FractEtc1.getEncodedSize(width, height) * (alphaData != null ? 2 : 1);
+        return (long) width * height * format.bytesPerPixel;
+    }
+
+    ByteBuffer getData() {
+        if (data != null)
+            return data.duplicate();
+        int rowBytes = bitmap.getRowBytes();
+        ByteBuffer pixels = ByteBuffer.allocate(rowBytes * height);
+        bitmap.copyPixelsToBuffer(pixels);
+        pixels.rewind();
+        int packedRowBytes = width * format.bytesPerPixel;
+        if (rowBytes == packedRowBytes)
+            return pixels;
+        ByteBuffer packed = ByteBuffer.allocate(packedRowBytes * height);
+        for (int y = 0; y < height; y++) {
+            pixels.limit(y * rowBytes + packedRowBytes).position(y * rowBytes);
+            packed.put(pixels);
+        }
+        packed.rewind();
+        return packed;
+    }
+
+    private static int powerOfTwo(int size) {
+        return size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+    }
+
+    static FractDrawablePack[] splitAndPack(FractResourcesDef.Drawable[] drawableDefs, FractResourcesDef resourcesDef, int maximumSize, int border, boolean halfBits) {
+        int hullVertices = resourcesDef.hullVertices;
+        if (hullVertices != 0 && (hullVertices < 3 || hullVertices > FractHull.MAX_VERTICES))
+            throw new RuntimeException("Hull vertices must be 0 or between 3 and " + FractHull.MAX_VERTICES);
+        FractPacker.Factory packerFactory = resourcesDef.packer;
+        final int baseFormats = Format.RGBA_8888.bit() | (halfBits ? Format.RGBA_4444.bit() : 0);
+        ArrayList<PackedBitmap[]> layoutList = new ArrayList<>();
+        FractTrace.begin(FractTrace.SPLIT_AND_PACK);
+        try {
+            FractResourcesDef.Drawable[] sorted = drawableDefs.clone();
+            Arrays.sort(sorted, PRIORITY_COMPARATOR);
+            TrimmedDrawable[] unique = deduplicate(rasterise(sorted, resourcesDef.trim, hullVertices, resourcesDef.compactFormats));
+            if (resourcesDef.compactFormats && resourcesDef.groupByFormat)
+                Arrays.sort(unique, new Comparator<TrimmedDrawable>() {
+                    @Override
+                    public int compare(TrimmedDrawable o1, TrimmedDrawable o2) {
+                        if (o1.priority != o2.priority)
+                            return o1.priority < o2.priority ? -1 : 1;
+                        return Integer.numberOfTrailingZeros(o1.formats | baseFormats) - Integer.numberOfTrailingZeros(o2.formats | baseFormats);
+                    }
+                });
+            FractPacker packer = packerFactory.create();
+            int from = 0;
+            while (from < unique.length) {
+                int to = fitPrefix(unique, from, maximumSize, border, packer);
+                PackedBitmap[] layout = layout(Arrays.copyOfRange(unique, from, to), maximumSize, border, packerFactory);
+                if (layout == null)
+                    throw new IllegalStateException("Unable to lay out drawables " + from + " to " + to + " within " + maximumSize + "x" + maximumSize);
+                layoutList.add(layout);
+                from = to;
             }
-        };
-        private final FractResourcesDef.Drawable drawableDef;
-        private final boolean rotated;
+        } finally {
+            FractTrace.end();
+        }
+        return compose(layoutList, resourcesDef.filter.generateMipmaps, baseFormats, resourcesDef.etc1Compression, border);
+    }
 
-        Candidate(FractResourcesDef.Drawable drawableDef, boolean rotated) {
-            this.drawableDef = drawableDef;
-            this.rotated = rotated;
+    private static TrimmedDrawable[] rasterise(FractResourcesDef.Drawable[] drawableDefs, boolean trim, int hullVertices, boolean analyse) {
+        ExecutorService pool = FractWorkers.get();
+        List<FutureTask<TrimmedDrawable>> tasks = new ArrayList<>(drawableDefs.length);
+        for (FractResourcesDef.Drawable drawableDef : drawableDefs) {
+            FutureTask<TrimmedDrawable> task = new FutureTask<>(new Rasteriser(drawableDef, trim, hullVertices, analyse));
+            if (drawableDef.isThreadSafe())
+                pool.execute(task);
+            else
+                task.run();
+            tasks.add(task);
         }
+        TrimmedDrawable[] trimmedDrawables = new TrimmedDrawable[drawableDefs.length];
+        for (int i = 0; i < trimmedDrawables.length; i++)
+            trimmedDrawables[i] = FractWorkers.await(tasks.get(i));
+        return trimmedDrawables;
+    }
 
-        int getWidth() {
-            return rotated ? drawableDef.getHeight() : drawableDef.getWidth();
+    private static TrimmedDrawable[] deduplicate(TrimmedDrawable[] trimmedDrawables) {
+        HashMap<Long, List<TrimmedDrawable>> hashMap = new HashMap<>();
+        ArrayList<TrimmedDrawable> unique = new ArrayList<>(trimmedDrawables.length);
+        trimmedDrawableIterator:
+        for (TrimmedDrawable trimmedDrawable : trimmedDrawables) {
+            List<TrimmedDrawable> sameHash = hashMap.get(trimmedDrawable.hash);
+            if (sameHash == null) {
+                sameHash = new ArrayList<>(1);
+                hashMap.put(trimmedDrawable.hash, sameHash);
+            } else
+                for (TrimmedDrawable candidate : sameHash)
+                    if (candidate.hasSamePixels(trimmedDrawable)) {
+                        candidate.aliases.add(trimmedDrawable);
+                        trimmedDrawable.recycle();
+                        continue trimmedDrawableIterator;
+                    }
+            sameHash.add(trimmedDrawable);
+            unique.add(trimmedDrawable);
         }
+        TrimmedDrawable[] uniqueArray = new TrimmedDrawable[unique.size()];
+        unique.toArray(uniqueArray);
+        return uniqueArray;
+    }
 
-        int getHeight() {
-            return rotated ? drawableDef.getWidth() : drawableDef.getHeight();
+    private static FractDrawablePack[] compose(List<PackedBitmap[]> layouts, final boolean powerOfTwo, final int baseFormats, final boolean etc1, final int border) {
+        ExecutorService pool = FractWorkers.get();
+        int packCount = layouts.size();
+        List<Future<FractDrawablePack>> composedPacks = new ArrayList<>(packCount);
+        for (final PackedBitmap[] layout : layouts) {
+            composedPacks.add(pool.submit(new Callable<FractDrawablePack>() {
+                @Override
+                public FractDrawablePack call() {
+                    return compose(layout, powerOfTwo, baseFormats, etc1, border);
+                }
+            }));
         }
+        FractDrawablePack[] packs = new FractDrawablePack[packCount];
+        for (int p = 0; p < packCount; p++)
+            packs[p] = FractWorkers.await(composedPacks.get(p));
+        return packs;
+    }
 
-        boolean shouldSkip(ArrayList<PackedBitmap> packedBitmaps) {
-            if (isGreaterThanItsRotation())
-                return false;
-            String key = drawableDef.key;
-            for (PackedBitmap packedBitmap : packedBitmaps)
-                if (packedBitmap.key.equals(key)) return true;
-            return false;
+    private static FractDrawablePack compose(PackedBitmap[] layout, boolean powerOfTwo, int baseFormats, boolean etc1, int border) {
+        int w = 0;
+        int h = 0;
+        int formats = -1;
+        ArrayList<PackedDrawable> packedDrawables = new ArrayList<>(layout.length);
+        for (PackedBitmap packedBitmap : layout) {
+            FractPixel bottomRightVertex = packedBitmap.bottomRightVertex;
+            if (bottomRightVertex.x > w)
+                w = bottomRightVertex.x;
+            if (bottomRightVertex.y > h)
+                h = bottomRightVertex.y;
+            packedDrawables.add(packedBitmap);
+            if (packedBitmap.drawable instanceof TrimmedDrawable) {
+                TrimmedDrawable trimmedDrawable = (TrimmedDrawable) packedBitmap.drawable;
+                formats &= trimmedDrawable.formats | baseFormats;
+                for (TrimmedDrawable alias : trimmedDrawable.aliases)
+                    packedDrawables.add(new PackedDrawable(alias.key, packedBitmap.topLeftVertex, packedBitmap.bottomRightVertex, packedBitmap.rotated, alias.trimOffset, alias.untrimmedSize, packedBitmap.hull));
+            } else
+                formats &= baseFormats;
+        }
+        int width = powerOfTwo ? powerOfTwo(w) : (w + 3) & ~3;
+        int height = powerOfTwo ? powerOfTwo(h) : (h + 3) & ~3;
+        Format format = Format.values()[Integer.numberOfTrailingZeros(formats)];
+        boolean compress = etc1 && format.config != Bitmap.Config.ALPHA_8;
+        Bitmap bitmap;
+        FractTrace.begin(FractTrace.COMPOSE_PAGE);
+        try {
+            bitmap = Bitmap.createBitmap(width, height, format == Format.LUMINANCE || compress ? Bitmap.Config.ARGB_8888 : format.config);
+            Canvas canvas = new Canvas(bitmap);
+            boolean opaque = format == Format.RGB_565 || format == Format.LUMINANCE;
+            for (PackedBitmap packedBitmap : layout) {
+                packedBitmap.draw(canvas);
+                if (opaque)
+                    extrude(bitmap, packedBitmap.topLeftVertex, packedBitmap.bottomRightVertex, border / 2);
+                if (packedBitmap.drawable instanceof TrimmedDrawable)
+                    ((TrimmedDrawable) packedBitmap.drawable).recycle();
+            }
+            if (format == Format.LUMINANCE) {
+                int[] pixels = new int[width * height];
+                bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+                bitmap.recycle();
+                for (int i = 0; i < pixels.length; i++)
+                    pixels[i] <<= 24;
+                bitmap = Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ALPHA_8);
+            }
+        } finally {
+            FractTrace.end();
         }
+        PackedDrawable[] packedDrawableArray = new PackedDrawable[packedDrawables.size()];
+        packedDrawables.toArray(packedDrawableArray);
+        if (compress) {
+            FractTrace.begin(FractTrace.ETC1_ENCODE);
+            try {
+                int[] pixels = new int[width * height];
+                bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+                bitmap.recycle();
+                ByteBuffer data = ByteBuffer.wrap(FractEtc1.encode(pixels, width, height, false));
+                ByteBuffer alphaData = format == Format.RGB_565 ? null : ByteBuffer.wrap(FractEtc1.encode(pixels, width, height, true));
+                return new FractDrawablePack(packedDrawableArray, width, height, Format.ETC1, data, alphaData);
+            } finally {
+                FractTrace.end();
+            }
+        }
+        return new FractDrawablePack(packedDrawableArray, bitmap, format);
+    }
+
+    private static void extrude(Bitmap bitmap, FractPixel topLeftVertex, FractPixel bottomRightVertex, int extent) {
+        int left = topLeftVertex.x;
+        int top = topLeftVertex.y;
+        int right = bottomRightVertex.x;
+        int bottom = bottomRightVertex.y;
+        if (extent <= 0 || right <= left || bottom <= top)
+            return;
+        int width = right - left;
+        int[] row = new int[width];
+        bitmap.getPixels(row, 0, width, left, top, width, 1);
+        for (int y = Math.max(top - extent, 0); y < top; y++)
+            bitmap.setPixels(row, 0, width, left, y, width, 1);
+        bitmap.getPixels(row, 0, width, left, bottom - 1, width, 1);
+        for (int y = bottom; y < Math.min(bottom + extent, bitmap.getHeight()); y++)
+            bitmap.setPixels(row, 0, width, left, y, width, 1);
+        int columnTop = Math.max(top - extent, 0);
+        int height = Math.min(bottom + extent, bitmap.getHeight()) - columnTop;
+        int[] column = new int[height];
+        bitmap.getPixels(column, 0, 1, left, columnTop, 1, height);
+        for (int x = Math.max(left - extent, 0); x < left; x++)
+            bitmap.setPixels(column, 0, 1, x, columnTop, 1, height);
+        bitmap.getPixels(column, 0, 1, right - 1, columnTop, 1, height);
+        for (int x = right; x < Math.min(right + extent, bitmap.getWidth()); x++)
+            bitmap.setPixels(column, 0, 1, x, columnTop, 1, height);
+    }
 
-        private boolean isGreaterThanItsRotation() {
-            return getHeight() > getWidth();
+    static PackedBitmap[] layout(FractResourcesDef.Drawable[] drawableDefs, int maximumSize, int border) {
+        return layout(drawableDefs, maximumSize, border, FractPacker.MaxRects.FACTORY);
+    }
+
+    static PackedBitmap[] layout(FractResourcesDef.Drawable[] drawableDefs, int maximumSize, final int border, final FractPacker.Factory packerFactory) {
+        if (drawableDefs.length == 0) throw new RuntimeException("No drawableDefs");
+        final FractResourcesDef.Drawable[] sorted = drawableDefs.clone();
+        Arrays.sort(sorted, SIZE_COMPARATOR);
+        long area = 0;
+        for (FractResourcesDef.Drawable drawableDef : sorted)
+            area += (long) (drawableDef.getWidth() + border) * (drawableDef.getHeight() + border);
+        final int[][] sizes = getPageSizes(area, maximumSize, border);
+        final AtomicInteger winner = new AtomicInteger(sizes.length);
+        int parallelism = Math.min(FractWorkers.getParallelism(), sizes.length);
+        if (parallelism < 2) {
+            FractPacker packer = packerFactory.create();
+            for (int[] size : sizes) {
+                PackedBitmap[] packedBitmaps = pack(size[0], size[1], border, sorted, packer, null, 0);
+                if (packedBitmaps != null)
+                    return packedBitmaps;
+            }
+            return null;
+        }
+        ExecutorService pool = FractWorkers.get();
+        List<FutureTask<PackedBitmap[]>> attempts = new ArrayList<>(sizes.length);
+        for (int i = 0; i < sizes.length; i++) {
+            final int index = i;
+            attempts.add(new FutureTask<>(new Callable<PackedBitmap[]>() {
+                @Override
+                public PackedBitmap[] call() {
+                    PackedBitmap[] packedBitmaps = pack(sizes[index][0], sizes[index][1], border, sorted, packerFactory.create(), winner, index);
+                    if (packedBitmaps != null) {
+                        int current;
+                        while ((current = winner.get()) > index && !winner.compareAndSet(current, index)) ;
+                    }
+                    return packedBitmaps;
+                }
+            }));
+        }
+        for (int i = 0; i < parallelism; i++)
+            pool.execute(attempts.get(i));
+        try {
+            for (int i = 0; i < sizes.length; i++) {
+                PackedBitmap[] packedBitmaps = FractWorkers.await(attempts.get(i));
+                if (packedBitmaps != null)
+                    return packedBitmaps;
+                if (i + parallelism < sizes.length)
+                    pool.execute(attempts.get(i + parallelism));
+            }
+            return null;
+        } finally {
+            winner.set(-1);
+            for (FutureTask<PackedBitmap[]> attempt : attempts)
+                attempt.cancel(false);
         }
+    }
 
-        boolean shouldReturn() {
-            return !isGreaterThanItsRotation();
+    private static int[][] getPageSizes(long area, int maximumSize, int border) {
+        ArrayList<int[]> sizes = new ArrayList<>();
+        for (int height = 1; height <= maximumSize; height *= 2) {
+            boolean wide = (long) (height * 2 + border) * (height + border) >= area && height * 2 <= maximumSize;
+            if (wide)
+                sizes.add(new int[]{height * 2, height});
+            if ((long) (height + border) * (height + border) >= area || height == maximumSize)
+                sizes.add(new int[]{height, height});
+            if (wide)
+                sizes.add(new int[]{height, height * 2});
         }
+        if (Integer.bitCount(maximumSize) != 1)
+            sizes.add(new int[]{maximumSize, maximumSize});
+        int[][] sizeArray = new int[sizes.size()][];
+        sizes.toArray(sizeArray);
+        Arrays.sort(sizeArray, PAGE_SIZE_COMPARATOR);
+        return sizeArray;
+    }
 
+    private static PackedBitmap[] pack(int width, int height, int border, FractResourcesDef.Drawable[] drawableDefs, FractPacker packer, AtomicInteger winner, int index) {
+        packer.reset(width + border, height + border);
+        int[] placement = new int[3];
+        PackedBitmap[] packedBitmaps = new PackedBitmap[drawableDefs.length];
+        for (int i = 0; i < drawableDefs.length; i++) {
+            if (winner != null && winner.get() < index)
+                return null;
+            FractResourcesDef.Drawable drawableDef = drawableDefs[i];
+            int drawableWidth = drawableDef.getWidth();
+            int drawableHeight = drawableDef.getHeight();
+            if (!packer.insert(drawableWidth + border, drawableHeight + border, drawableWidth != drawableHeight, placement))
+                return null;
+            packedBitmaps[i] = new PackedBitmap(drawableDef, placement[0], placement[1], placement[2] != 0);
+        }
+        return packedBitmaps;
     }
 
     static class PackedDrawable implements FractCoder.Encodable {
@@ -267,21 +441,43 @@ class FractDrawablePack {
                 boolean rotated = node.booleanData.get("rotated");
                 FractPixel topLeftVertex = FractPixel.DECODER.decode(node.nodeData.get("topLeftVertex"));
                 FractPixel bottomRightVertex = FractPixel.DECODER.decode(node.nodeData.get("bottomRightVertex"));
-                return new PackedDrawable(key, topLeftVertex, bottomRightVertex, rotated);
+                FractPixel trimOffset = FractPixel.DECODER.decode(node.nodeData.get("trimOffset"));
+                FractPixel untrimmedSize = FractPixel.DECODER.decode(node.nodeData.get("untrimmedSize"));
+                float[] hull = null;
+                if (node.nodeData.contains("hull")) {
+                    FractCoder.Node hullNode = node.nodeData.get("hull");
+                    hull = new float[hullNode.integerData.get("vertices") * 2];
+                    for (int i = 0; i < hull.length; i++)
+                        hull[i] = hullNode.floatData.get("v" + i);
+                }
+                return new PackedDrawable(key, topLeftVertex, bottomRightVertex, rotated, trimOffset, untrimmedSize, hull);
             }
         };
         final String key;
         final FractPixel topLeftVertex, bottomRightVertex;
         final boolean rotated;
+        final FractPixel trimOffset, untrimmedSize;
+        final float[] hull;
 
-        private PackedDrawable(String key, FractPixel topLeftVertex, FractPixel bottomRightVertex, boolean rotated) {
+        private PackedDrawable(String key, FractPixel topLeftVertex, FractPixel bottomRightVertex, boolean rotated, FractPixel trimOffset, FractPixel untrimmedSize, float[] hull) {
             this.key = key;
             this.topLeftVertex = topLeftVertex;
             this.bottomRightVertex = bottomRightVertex;
             this.rotated = rotated;
+            this.trimOffset = trimOffset;
+            this.untrimmedSize = untrimmedSize;
+            this.hull = hull;
+        }
+
+        PackedDrawable(String key, int x, int y, int w, int h, boolean rotated) {
+            this(key, x, y, w, h, rotated, null);
+        }
+
+        PackedDrawable(String key, int x, int y, int w, int h, boolean rotated, float[] hull) {
+            this(key, x, y, w, h, rotated, new FractPixel(0, 0), new FractPixel(w, h), hull);
         }
 
-        private PackedDrawable(String key, int x, int y, int w, int h, boolean rotated) {
+        private PackedDrawable(String key, int x, int y, int w, int h, boolean rotated, FractPixel trimOffset, FractPixel untrimmedSize, float[] hull) {
             this.key = key;
             this.rotated = rotated;
             topLeftVertex = new FractPixel(x, y);
@@ -289,7 +485,21 @@ class FractDrawablePack {
                 bottomRightVertex = new FractPixel(x + h, y + w);
             else
                 bottomRightVertex = new FractPixel(x + w, y + h);
+            this.trimOffset = trimOffset;
+            this.untrimmedSize = untrimmedSize;
+            this.hull = hull;
+        }
+
+        int getWidth() {
+            return rotated ? bottomRightVertex.y - topLeftVertex.y : bottomRightVertex.x - topLeftVertex.x;
+        }
 
+        int getHeight() {
+            return rotated ? bottomRightVertex.x - topLeftVertex.x : bottomRightVertex.y - topLeftVertex.y;
+        }
+
+        float getAspectRatio() {
+            return untrimmedSize.x / (float) untrimmedSize.y;
         }
 
         @Override
@@ -299,32 +509,221 @@ class FractDrawablePack {
             n.booleanData.put("rotated", rotated);
             n.nodeData.put("topLeftVertex", topLeftVertex.encode());
             n.nodeData.put("bottomRightVertex", bottomRightVertex.encode());
+            n.nodeData.put("trimOffset", trimOffset.encode());
+            n.nodeData.put("untrimmedSize", untrimmedSize.encode());
+            if (hull != null) {
+                FractCoder.Node hullNode = new FractCoder.Node();
+                hullNode.integerData.put("vertices", hull.length / 2);
+                for (int i = 0; i < hull.length; i++)
+                    hullNode.floatData.put("v" + i, hull[i]);
+                n.nodeData.put("hull", hullNode);
+            }
             return n;
         }
     }
 
-    private static final class PackedBitmap extends PackedDrawable {
-        private static final Matrix MATRIX = new Matrix();
+    static final class PackedBitmap extends PackedDrawable {
         private final FractResourcesDef.Drawable drawable;
 
         private PackedBitmap(FractResourcesDef.Drawable drawableDef, int x, int y, boolean rotated) {
-            super(drawableDef.key, x, y, drawableDef.getWidth(), drawableDef.getHeight(), rotated);
+            super(drawableDef.key, x, y, drawableDef.getWidth(), drawableDef.getHeight(), rotated,
+                    drawableDef instanceof TrimmedDrawable ? ((TrimmedDrawable) drawableDef).trimOffset : new FractPixel(0, 0),
+                    drawableDef instanceof TrimmedDrawable ? ((TrimmedDrawable) drawableDef).untrimmedSize : new FractPixel(drawableDef.getWidth(), drawableDef.getHeight()),
+                    drawableDef instanceof TrimmedDrawable ? ((TrimmedDrawable) drawableDef).hull : null);
             this.drawable = drawableDef;
         }
 
         void draw(Canvas canvas) {
-            MATRIX.reset();
+            Matrix matrix = new Matrix();
             if (rotated) {
-                MATRIX.setTranslate(-drawable.getWidth(), 0);
-                MATRIX.postRotate(-90);
+                matrix.setTranslate(-drawable.getWidth(), 0);
+                matrix.postRotate(-90);
             }
-            MATRIX.postTranslate(topLeftVertex.x, topLeftVertex.y);
+            matrix.postTranslate(topLeftVertex.x, topLeftVertex.y);
             canvas.save();
             canvas.clipRect(topLeftVertex.x, topLeftVertex.y, bottomRightVertex.x, bottomRightVertex.y);
-            canvas.concat(MATRIX);
+            canvas.concat(matrix);
             drawable.draw(canvas);
             canvas.restore();
         }
 
     }
+
+    private static final class TrimmedDrawable extends FractResourcesDef.Drawable {
+
+        private final FractPixel trimOffset, untrimmedSize;
+        private final int width, height;
+        private final long hash;
+        private final float[] hull;
+        private final int formats;
+        private final List<TrimmedDrawable> aliases;
+        private Bitmap bitmap;
+
+        private TrimmedDrawable(FractResourcesDef.Drawable drawableDef, Bitmap bitmap, int left, int top, int width, int height, long hash, float[] hull, int formats) {
+            super(drawableDef.priority, drawableDef.key);
+            this.bitmap = bitmap;
+            this.width = width;
+            this.height = height;
+            this.hash = hash;
+            this.hull = hull;
+            this.formats = formats;
+            trimOffset = new FractPixel(left, top);
+            untrimmedSize = new FractPixel(drawableDef.getWidth(), drawableDef.getHeight());
+            aliases = new ArrayList<>(0);
+        }
+
+        private boolean hasSamePixels(TrimmedDrawable other) {
+            if (hash != other.hash || width != other.width || height != other.height)
+                return false;
+            if (bitmap == null || other.bitmap == null)
+                return bitmap == other.bitmap;
+            int[] pixels = new int[width * height];
+            int[] otherPixels = new int[width * height];
+            bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+            other.bitmap.getPixels(otherPixels, 0, width, 0, 0, width, height);
+            return Arrays.equals(pixels, otherPixels);
+        }
+
+        private void recycle() {
+            if (bitmap != null)
+                bitmap.recycle();
+            bitmap = null;
+        }
+
+        @Override
+        public void draw(Canvas canvas) {
+            if (bitmap != null)
+                canvas.drawBitmap(bitmap, 0, 0, null);
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+    }
+
+    private static final class Rasteriser implements Callable<TrimmedDrawable> {
+
+        private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+        private static final long FNV_PRIME = 0x100000001b3L;
+
+        private final FractResourcesDef.Drawable drawableDef;
+        private final boolean trim;
+        private final int hullVertices;
+        private final boolean analyse;
+
+        private Rasteriser(FractResourcesDef.Drawable drawableDef, boolean trim, int hullVertices, boolean analyse) {
+            this.drawableDef = drawableDef;
+            this.trim = trim;
+            this.hullVertices = hullVertices;
+            this.analyse = analyse;
+        }
+
+        @Override
+        public TrimmedDrawable call() {
+            int width = drawableDef.getWidth();
+            int height = drawableDef.getHeight();
+            if (width <= 0 || height <= 0)
+                return new TrimmedDrawable(drawableDef, null, 0, 0, Math.max(width, 0), Math.max(height, 0), FNV_OFFSET, null, analyse ? -1 : 0);
+            FractTrace.begin(FractTrace.RASTERISE);
+            try {
+                Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                drawableDef.draw(new Canvas(bitmap));
+                int[] pixels = new int[width * height];
+                bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+                int left = 0, top = 0, right = width, bottom = height;
+                if (trim) {
+                    left = width;
+                    top = height;
+                    right = bottom = 0;
+                    for (int y = 0; y < height; y++) {
+                        int row = y * width;
+                        for (int x = 0; x < width; x++) {
+                            if (pixels[row + x] >>> 24 != 0) {
+                                if (x < left) left = x;
+                                if (x >= right) right = x + 1;
+                                if (y < top) top = y;
+                                bottom = y + 1;
+                            }
+                        }
+                    }
+                    if (right <= left) {
+                        left = top = 0;
+                        right = bottom = 1;
+                    }
+                }
+                int trimmedWidth = right - left;
+                int trimmedHeight = bottom - top;
+                long hash = FNV_OFFSET;
+                hash = (hash ^ trimmedWidth) * FNV_PRIME;
+                hash = (hash ^ trimmedHeight) * FNV_PRIME;
+                boolean opaque = analyse, gray = analyse, white = analyse;
+                for (int y = top; y < bottom; y++) {
+                    int row = y * width;
+                    for (int x = left; x < right; x++) {
+                        int pixel = pixels[row + x];
+                        hash = (hash ^ pixel) * FNV_PRIME;
+                        if (pixel >>> 24 != 0xFF)
+                            opaque = false;
+                        if (((pixel >> 16) & 0xFF) != (pixel & 0xFF) || ((pixel >> 8) & 0xFF) != (pixel & 0xFF))
+                            gray = false;
+                        if (pixel >>> 24 != 0 && (pixel & 0xFFFFFF) != 0xFFFFFF)
+                            white = false;
+                    }
+                }
+                int formats = 0;
+                if (white)
+                    formats |= Format.ALPHA.bit();
+                if (opaque && gray)
+                    formats |= Format.LUMINANCE.bit();
+                if (opaque)
+                    formats |= Format.RGB_565.bit();
+                float[] hull = hullVertices == 0 ? null : FractHull.compute(pixels, width, left, top, trimmedWidth, trimmedHeight, hullVertices);
+                if (trimmedWidth != width || trimmedHeight != height) {
+                    Bitmap trimmed = Bitmap.createBitmap(bitmap, left, top, trimmedWidth, trimmedHeight);
+                    bitmap.recycle();
+                    bitmap = trimmed;
+                }
+                return new TrimmedDrawable(drawableDef, bitmap, left, top, trimmedWidth, trimmedHeight, hash, hull, formats);
+            } finally {
+                FractTrace.end();
+            }
+        }
+
+    }
+
+    enum Format {
+        ALPHA(Bitmap.Config.ALPHA_8, GLES20.GL_ALPHA, GLES20.GL_UNSIGNED_BYTE, 1),
+        LUMINANCE(Bitmap.Config.ALPHA_8, GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, 1),
+        RGB_565(Bitmap.Config.RGB_565, GLES20.GL_RGB, GLES20.GL_UNSIGNED_SHORT_5_6_5, 2),
+        RGBA_4444(Bitmap.Config.ARGB_4444, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_SHORT_4_4_4_4, 2),
+        RGBA_8888(Bitmap.Config.ARGB_8888, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 4),
+        ETC1(null, FractEtc1.GL_ETC1_RGB8_OES, 0, 0);
+
+        final Bitmap.Config config;
+        final int glFormat;
+        final int glType;
+        final int bytesPerPixel;
+
+        Format(Bitmap.Config config, int glFormat, int glType, int bytesPerPixel) {
+            this.config = config;
+            this.glFormat = glFormat;
+            this.glType = glType;
+            this.bytesPerPixel = bytesPerPixel;
+        }
+
+        int getDataSize(int width, int height) {
+            return this == ETC1 ? FractEtc1.getEncodedSize(width, height) : width * height * bytesPerPixel;
+        }
+
+        int bit() {
+            return 1 << ordinal();
+        }
+    }
 }
@@ -0,0 +1,318 @@
+package com.francescoz.fract.engine;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class FractDynamicAtlas {
+
+    private static final String KEY_PREFIX = "fract.dynamic.";
+    private static final int BORDER = 1;
+    private static final FractResourcesDef.Filter FILTER = new FractResourcesDef.Filter(true, true);
+    private static final int MAX_BACKOFF_SHIFT = 6;
+    private static final Comparator<Entry> SIZE_COMPARATOR = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry o1, Entry o2) {
+            int height = o2.height - o1.height;
+            return height != 0 ? height : o2.width - o1.width;
+        }
+    };
+
+    private final FractGL gl;
+    private final int pageSize;
+    private final int maxPages;
+    private final ByteBuffer clearData;
+    private final AtomicInteger keyCount;
+    private final Set<String> keys;
+    private final ArrayList<Entry> pending;
+    private final HashMap<String, Entry> entries;
+    private final ArrayList<Page> pages;
+    private final int[] placement;
+
+    FractDynamicAtlas(FractGL gl, int pageSize, int maxPages) {
+        this.gl = gl;
+        this.pageSize = pageSize;
+        this.maxPages = maxPages;
+        clearData = ByteBuffer.allocateDirect(pageSize * BORDER * 4).order(ByteOrder.nativeOrder());
+        keyCount = new AtomicInteger();
+        keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        pending = new ArrayList<>();
+        entries = new HashMap<>();
+        pages = new ArrayList<>();
+        placement = new int[3];
+    }
+
+    String add(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (maxPages <= 0 || width + 2 * BORDER > pageSize || height + 2 * BORDER > pageSize)
+            throw new IllegalArgumentException("Bitmap " + width + "x" + height + " does not fit a dynamic atlas page of " + pageSize + "x" + pageSize);
+        if (bitmap.getConfig() != Bitmap.Config.ARGB_8888)
+            bitmap = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+        String key = KEY_PREFIX + keyCount.incrementAndGet();
+        keys.add(key);
+        synchronized (pending) {
+            pending.add(new Entry(key, bitmap));
+        }
+        return key;
+    }
+
+    void remove(String key) {
+        if (!keys.remove(key))
+            return;
+        synchronized (pending) {
+            pending.add(new Entry(key, null));
+        }
+    }
+
+    boolean contains(String key) {
+        return keys.contains(key);
+    }
+
+    FractResources.Drawable getDrawable(String key, long frame) {
+        Entry entry = entries.get(key);
+        if (entry == null)
+            return null;
+        entry.lastUsedFrame = frame;
+        if (entry.drawable == null)
+            entry.requested = true;
+        return entry.drawable;
+    }
+
+    boolean update(long frame, long deadline, boolean trim) {
+        boolean changed = false;
+        synchronized (pending) {
+            for (Entry entry : pending) {
+                Entry removed = entry.bitmap == null ? entries.remove(entry.key) : null;
+                if (removed != null)
+                    free(removed);
+                else if (entry.bitmap != null) {
+                    entry.lastUsedFrame = frame;
+                    entry.requested = true;
+                    entries.put(entry.key, entry);
+                }
+            }
+            pending.clear();
+        }
+        boolean uploaded = false;
+        for (Entry entry : entries.values()) {
+            if (!entry.requested || frame < entry.retryFrame)
+                continue;
+            if (uploaded && System.nanoTime() >= deadline)
+                break;
+            entry.requested = false;
+            uploaded |= place(entry, frame);
+        }
+        changed |= uploaded;
+        if (trim)
+            changed |= trim(frame);
+        return changed;
+    }
+
+    void onContextLost() {
+        pages.clear();
+        for (Entry entry : entries.values()) {
+            entry.page = null;
+            entry.drawable = null;
+        }
+    }
+
+    private boolean place(Entry entry, long frame) {
+        boolean changed = false;
+        if (allocate(entry))
+            return placed(entry);
+        if (pages.size() < maxPages) {
+            int[] textureID = new int[1];
+            gl.glGenTextures(1, textureID, 0);
+            FractPacker.Guillotine allocator = new FractPacker.Guillotine();
+            allocator.reset(pageSize, pageSize);
+            pages.add(new Page(new FractResources.Texture(gl, pageSize, pageSize, FILTER, textureID[0], GLES20.GL_RGBA), allocator));
+            changed = true;
+            if (allocate(entry))
+                return placed(entry);
+        }
+        while (evictLeastRecentlyUsed(frame)) {
+            changed = true;
+            if (allocate(entry))
+                return placed(entry);
+        }
+        if (getFreeArea() >= getArea(entry) && compact(entry))
+            return placed(entry);
+        entry.requested = true;
+        entry.failures++;
+        entry.retryFrame = frame + (1 << Math.min(entry.failures, MAX_BACKOFF_SHIFT));
+        Log.d("FractDynamicAtlas", "No room for " + entry.key + ", retrying at frame " + entry.retryFrame);
+        return changed;
+    }
+
+    private boolean placed(Entry entry) {
+        entry.failures = 0;
+        entry.retryFrame = 0;
+        return true;
+    }
+
+    private boolean allocate(Entry entry) {
+        int width = entry.width + 2 * BORDER;
+        int height = entry.height + 2 * BORDER;
+        for (Page page : pages)
+            if (page.allocator.insert(width, height, false, placement)) {
+                entry.page = page;
+                entry.x = placement[0];
+                entry.y = placement[1];
+                upload(entry);
+                return true;
+            }
+        return false;
+    }
+
+    private static long getArea(Entry entry) {
+        return (long) (entry.width + 2 * BORDER) * (entry.height + 2 * BORDER);
+    }
+
+    private long getFreeArea() {
+        long freeArea = (long) pages.size() * pageSize * pageSize;
+        for (Entry entry : entries.values())
+            if (entry.page != null)
+                freeArea -= getArea(entry);
+        return freeArea;
+    }
+
+    private void upload(Entry entry) {
+        int x = entry.x;
+        int y = entry.y;
+        int width = entry.width + 2 * BORDER;
+        int height = entry.height + 2 * BORDER;
+        gl.glBindTexture(GLES20.GL_TEXTURE_2D, entry.page.texture.textureID);
+        clear(x, y, width, BORDER);
+        clear(x, y + height - BORDER, width, BORDER);
+        clear(x, y + BORDER, BORDER, entry.height);
+        clear(x + width - BORDER, y + BORDER, BORDER, entry.height);
+        gl.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, x + BORDER, y + BORDER, entry.bitmap);
+        entry.drawable = new FractResources.Drawable(entry.page.texture, new FractDrawablePack.PackedDrawable(entry.key, x + BORDER, y + BORDER, entry.width, entry.height, false), pageSize, pageSize);
+    }
+
+    private void clear(int x, int y, int width, int height) {
+        clearData.position(0);
+        gl.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, x, y, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, clearData);
+    }
+
+    private void free(Entry entry) {
+        if (entry.page != null)
+            entry.page.allocator.free(entry.x, entry.y, entry.width + 2 * BORDER, entry.height + 2 * BORDER);
+        entry.page = null;
+        entry.drawable = null;
+    }
+
+    private boolean compact(Entry incoming) {
+        ArrayList<Entry> candidates = new ArrayList<>();
+        for (Entry entry : entries.values())
+            if (entry.page != null)
+                candidates.add(entry);
+        candidates.add(incoming);
+        Collections.sort(candidates, SIZE_COMPARATOR);
+        FractPacker.Guillotine[] allocators = new FractPacker.Guillotine[pages.size()];
+        for (int p = 0; p < allocators.length; p++) {
+            allocators[p] = new FractPacker.Guillotine();
+            allocators[p].reset(pageSize, pageSize);
+        }
+        for (Entry entry : candidates) {
+            entry.nextPage = -1;
+            for (int p = 0; p < allocators.length && entry.nextPage < 0; p++)
+                if (allocators[p].insert(entry.width + 2 * BORDER, entry.height + 2 * BORDER, false, placement)) {
+                    entry.nextPage = p;
+                    entry.nextX = placement[0];
+                    entry.nextY = placement[1];
+                }
+            if (entry.nextPage < 0)
+                return false;
+        }
+        for (int p = 0; p < allocators.length; p++)
+            pages.get(p).allocator = allocators[p];
+        int moved = 0;
+        for (Entry entry : candidates) {
+            Page page = pages.get(entry.nextPage);
+            if (entry.page == page && entry.x == entry.nextX && entry.y == entry.nextY)
+                continue;
+            entry.page = page;
+            entry.x = entry.nextX;
+            entry.y = entry.nextY;
+            upload(entry);
+            moved++;
+        }
+        Log.d("FractDynamicAtlas", "Compacted " + candidates.size() + " regions, " + moved + " moved");
+        return true;
+    }
+
+    private boolean evictLeastRecentlyUsed(long frame) {
+        Entry leastRecentlyUsed = null;
+        for (Entry entry : entries.values())
+            if (entry.page != null && entry.lastUsedFrame < frame - 1 && (leastRecentlyUsed == null || entry.lastUsedFrame < leastRecentlyUsed.lastUsedFrame))
+                leastRecentlyUsed = entry;
+        if (leastRecentlyUsed == null)
+            return false;
+        free(leastRecentlyUsed);
+        return true;
+    }
+
+    private boolean trim(long frame) {
+        boolean changed = false;
+        while (evictLeastRecentlyUsed(frame))
+            changed = true;
+        for (Iterator<Page> iterator = pages.iterator(); iterator.hasNext(); ) {
+            Page page = iterator.next();
+            if (!page.allocator.isEmpty())
+                continue;
+            gl.glDeleteTextures(1, new int[]{page.texture.textureID}, 0);
+            iterator.remove();
+            changed = true;
+        }
+        return changed;
+    }
+
+    private static final class Page {
+
+        final FractResources.Texture texture;
+        FractPacker.Guillotine allocator;
+
+        Page(FractResources.Texture texture, FractPacker.Guillotine allocator) {
+            this.texture = texture;
+            this.allocator = allocator;
+        }
+
+    }
+
+    private static final class Entry {
+
+        final String key;
+        final Bitmap bitmap;
+        final int width, height;
+        Page page;
+        int x, y;
+        FractResources.Drawable drawable;
+        long lastUsedFrame;
+        boolean requested;
+        long retryFrame;
+        int failures;
+        int nextPage, nextX, nextY;
+
+        Entry(String key, Bitmap bitmap) {
+            this.key = key;
+            this.bitmap = bitmap;
+            width = bitmap == null ? 0 : bitmap.getWidth();
+            height = bitmap == null ? 0 : bitmap.getHeight();
+        }
+
+    }
+
+}
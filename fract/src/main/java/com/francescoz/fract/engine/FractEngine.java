@@ -10,7 +10,6 @@ import android.graphics.PixelFormat;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.text.TextUtils;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
@@ -31,29 +30,69 @@ import com.francescoz.fract.utils.FractTransform;
 import com.francescoz.fract.utils.FractVec;
 
 import java.io.File;
-import java.io.IOException;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 public abstract class FractEngine {
 
+    private final FractGL gl;
     private final FractBatch batch;
     private final File diskCache;
     private final Surface surface;
     private final FractBatch.Masker masker;
+    private final FractFrameStats frameStats;
+    private final FractHud hud;
+    private final FractResourceLoader loader;
+    private final FractResourceLoader bundleLoader;
+    private final FractResourceLoader.Source resourceSource;
+    private final FractScreen.LoadingScreen loadingScreen;
+    private final long uploadBudget;
+    private final FractUsageProfile usageProfile;
+    private final FractLifecycle lifecycle;
+    private final FractDynamicAtlas dynamicAtlas;
     private FractScreen currentScreen, nextScreen;
-    private FractResources resources;
+    private final boolean halfBits;
+    private FractResources resources, screenResources, loadingResources;
 
     public FractEngine(Context context, Config config) {
+        this(context, config, FractGLES20.INSTANCE);
+    }
+
+    FractEngine(Context context, Config config, FractGL gl) {
         if (!isSupported(context))
             throw new RuntimeException("FractEngine is not supported by this device");
+        if (config.textureBudget > 0 && config.diskCache == null)
+            throw new IllegalArgumentException("A texture budget needs a disk cache to reload evicted pages from");
         splash(context);
         this.diskCache = config.diskCache;
         currentScreen = new FractScreen.DefaultScreen();
-        batch = new FractBatch(config.spriteBufferSize);
+        this.gl = gl;
+        batch = new FractBatch(gl, config.spriteBufferSize);
         masker = config.requireMasking ? batch.new Masker(this) : null;
+        frameStats = new FractFrameStats(config.frameStatsWindow, config.jankThreshold);
+        hud = config.enableHud ? new FractHud(config.jankThreshold) : null;
+        loadingScreen = config.loadingScreen != null ? config.loadingScreen : new FractScreen.LoadingScreen();
+        uploadBudget = (long) (config.uploadBudget / FractMath.NANO_TO_SECONDS);
+        usageProfile = config.usageProfile;
+        halfBits = config.allowLowPrecisionColors;
+        resourceSource = new FractResourceLoader.Source() {
+            @Override
+            public FractResourcesDef createResources(FractPixel resolution) {
+                return createResourcesDef(resolution);
+            }
+
+            @Override
+            public boolean accepts(FractResources.PackedResourceDef packedResourceDef) {
+                return hud == null || FractHud.isSupportedBy(packedResourceDef);
+            }
+        };
+        loader = new FractResourceLoader(gl, diskCache, config.diskCacheEntries, config.contentVersion, config.retainBudget, config.textureBudget, config.allowLowPrecisionColors);
+        bundleLoader = new FractResourceLoader(gl, null, 0, 0, config.retainBudget, config.textureBudget, config.allowLowPrecisionColors);
+        dynamicAtlas = new FractDynamicAtlas(gl, config.dynamicAtlasSize, config.dynamicAtlasPages);
         surface = new Surface(context, config.allowLowPrecisionColors, config.requireTransparentSurface);
+        lifecycle = new FractLifecycle(surface, surface.renderer);
+        FractTrace.setEnabled(config.enableTracing);
     }
 
     private static final void splash(final Context context) {
@@ -103,28 +142,90 @@ public abstract class FractEngine {
         return diskCache != null;
     }
 
+    public final String addDrawable(Bitmap bitmap) {
+        return dynamicAtlas.add(bitmap);
+    }
+
+    public final void removeDrawable(String drawableKey) {
+        dynamicAtlas.remove(drawableKey);
+    }
+
+    public final void onPause() {
+        lifecycle.pause();
+    }
+
+    public final void onResume() {
+        lifecycle.resume();
+    }
+
+    public final void onTrimMemory(int level) {
+        lifecycle.trimMemory(level);
+    }
+
+    public final boolean isPaused() {
+        return lifecycle.isPaused();
+    }
+
     public final View getView() {
         return surface;
     }
 
-    private final void reloadResources(int w, int h) {
-        if (resources != null) resources.destroy();
-        FractPixel resolution = new FractPixel(w, h);
-        if (hasDiskCache()) {
-            if ((resources = FractResources.load(diskCache, resolution)) == null) {
-                try {
-                    resources = FractResources.createAndSave(createResources(resolution), resolution, surface.halfBits, diskCache);
-                    Log.d("FractEngine", "Resources successfully created and written to file");
-                } catch (IOException e) {
-                    if (diskCache != null) diskCache.delete();
-                    throw new RuntimeException("Error while writing disk cache");
-                }
-            } else
-                Log.d("FractEngine", "Resources successfully loaded from file");
-        } else
-            resources = FractResources.create(createResources(resolution), resolution, surface.halfBits);
+    public final FractFrameStats getFrameStats() {
+        return frameStats;
+    }
+
+    public final boolean hasHud() {
+        return hud != null;
+    }
+
+    public final boolean isHudVisible() {
+        return hud != null && hud.visible;
+    }
+
+    public final void setHudVisible(boolean visible) {
+        if (hud == null)
+            throw new IllegalStateException("HUD not enabled in Config");
+        hud.visible = visible;
+    }
+
+    public final FractUsageProfile getUsageProfile() {
+        return usageProfile;
+    }
+
+    public final long getTextureMemory() {
+        FractResources current = resources;
+        FractResources screen = screenResources;
+        return (current == null ? 0 : current.textureMemory) + (screen == null ? 0 : screen.textureMemory);
+    }
+
+    public final long getTextureMemorySaved() {
+        FractResources current = resources;
+        FractResources screen = screenResources;
+        return (current == null ? 0 : current.textureMemorySaved) + (screen == null ? 0 : screen.textureMemorySaved);
+    }
+
+    public final boolean isLoading() {
+        return loader.isLoading();
+    }
+
+    public final float getLoadingProgress() {
+        return loader.getProgress();
+    }
+
+    private FractResourcesDef createResourcesDef(FractPixel resolution) {
+        FractResourcesDef resourcesDef = createResources(resolution);
+        if (resourcesDef == null)
+            resourcesDef = new FractResourcesDef();
+        if (hud != null) {
+            resourcesDef = resourcesDef.copy();
+            FractHud.addDrawables(resourcesDef, resolution);
+        }
+        return resourcesDef;
     }
 
+    /**
+     * Called on the resource loader thread, not on the UI or GL thread.
+     */
     protected abstract FractResourcesDef createResources(FractPixel resolution);
 
     public static final class Test extends FractEngine {
@@ -181,13 +282,36 @@ public abstract class FractEngine {
     public static final class Config {
 
         public File diskCache;
+        public int diskCacheEntries;
+        /**
+         * Change this, for example to PackageInfo.lastUpdateTime, whenever drawables may have changed. The disk cache is
+         * checked against createResources only when it was written under a different content version.
+         */
+        public long contentVersion;
+        public long retainBudget;
+        public long textureBudget;
+        public int dynamicAtlasSize;
+        public int dynamicAtlasPages;
         public boolean allowLowPrecisionColors;
         public boolean requireTransparentSurface;
         public boolean requireMasking;
+        public boolean enableTracing;
+        public boolean enableHud;
         public int spriteBufferSize;
+        public int frameStatsWindow;
+        public float jankThreshold;
+        public float uploadBudget;
+        public FractScreen.LoadingScreen loadingScreen;
+        public FractUsageProfile usageProfile;
 
         public Config() {
+            diskCacheEntries = 3;
+            dynamicAtlasSize = 1024;
+            dynamicAtlasPages = 2;
             spriteBufferSize = 128;
+            frameStatsWindow = 300;
+            jankThreshold = 1.5f / 60;
+            uploadBudget = 0.004f;
         }
     }
 
@@ -318,9 +442,10 @@ public abstract class FractEngine {
         }
     }
 
-    private final class Surface extends GLSurfaceView {
+    private final class Surface extends GLSurfaceView implements FractLifecycle.Surface {
 
         private final InputHandler inputHandler;
+        private final Renderer renderer;
         private final boolean halfBits;
 
         private Surface(Context context, boolean halfColor, boolean alpha) {
@@ -341,80 +466,287 @@ public abstract class FractEngine {
                 else
                     setEGLConfigChooser(8, 8, 8, 0, 0, 0);
             }
-            setRenderer(new Renderer());
+            setPreserveEGLContextOnPause(true);
+            renderer = new Renderer();
+            setRenderer(renderer);
             setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
             inputHandler = new InputHandler();
             setOnTouchListener(inputHandler);
         }
 
-        private final class Renderer implements GLSurfaceView.Renderer {
+        private final class Renderer implements GLSurfaceView.Renderer, FractLifecycle.Listener {
 
             private final Drawer drawer;
             private long time;
+            private long lastFrameTime;
             private int width, height;
+            private int maxTextureSize;
             private boolean mustReload;
+            private boolean showingLoadingScreen;
+            private boolean mustTrim;
+            private FractScreen bundleScreen, preloadedScreen;
+            private FractResources preloadedResources;
 
             Renderer() {
                 drawer = hasMask() ? new MaskDrawer() : new Drawer();
             }
 
+            @Override
+            public void onPause() {
+                currentScreen.pause();
+            }
+
+            @Override
+            public void onResume() {
+                time = System.nanoTime();
+                lastFrameTime = 0;
+                currentScreen.resume();
+            }
+
+            @Override
+            public void onReleaseMemory() {
+                loader.releaseRetained();
+                bundleLoader.releaseRetained();
+                mustTrim = true;
+            }
+
             @Override
             public void onSurfaceCreated(GL10 gl10, EGLConfig eglConfig) {
                 mustReload = true;
+                resources = screenResources = preloadedResources = loadingResources = null;
+                preloadedScreen = null;
+                loader.onContextLost();
+                bundleLoader.onContextLost();
+                dynamicAtlas.onContextLost();
                 batch.create();
+                maxTextureSize = FractResources.getMaxTextureSize(gl);
                 time = System.nanoTime();
+                lastFrameTime = 0;
             }
 
             @Override
             public void onSurfaceChanged(GL10 gl10, int width, int height) {
+                this.width = width;
+                this.height = height;
                 if (mustReload) {
                     mustReload = false;
-                    reloadResources(width, height);
-                } else if (resources.recreateOnResolutionChange) {
-                    FractPixel cacheResolution = resources.packingResolution;
-                    if (width != cacheResolution.x || height != cacheResolution.y)
-                        reloadResources(width, height);
+                    reloadResources();
+                } else {
+                    if (isStale(resources))
+                        reloadResources();
+                    if (isStale(screenResources))
+                        loadBundle(currentScreen);
+                    if (isStale(preloadedResources)) {
+                        preloadedResources.destroy();
+                        preloadedResources = null;
+                        preloadedScreen = null;
+                    }
+                    if (isStale(loadingResources))
+                        loadLoadingResources();
                 }
-                this.width = width;
-                this.height = height;
                 if (hasMask())
                     masker.create(width, height);
                 inputHandler.setSize(width, height);
                 currentScreen.resize(width, height);
+                loadingScreen.resize(width, height);
+                if (hud != null)
+                    hud.resize(width, height);
                 time = System.nanoTime();
+                lastFrameTime = 0;
+            }
+
+            private void reloadResources() {
+                if (resources == null && !showingLoadingScreen) {
+                    loadLoadingResources();
+                    loadingScreen.set(width, height);
+                    showingLoadingScreen = true;
+                } else if (showingLoadingScreen && loadingResources == null)
+                    loadLoadingResources();
+                loader.start(resourceSource, new FractPixel(width, height), maxTextureSize);
+                if (screenResources == null && nextScreen == null && currentScreen.hasResources() && bundleScreen != currentScreen)
+                    loadBundle(currentScreen);
+            }
+
+            private void loadLoadingResources() {
+                destroyLoadingResources();
+                FractPixel resolution = new FractPixel(width, height);
+                FractResourcesDef resourcesDef = loadingScreen.createResources(resolution);
+                if (resourcesDef != null)
+                    loadingResources = FractResources.create(gl, FractResources.create(resourcesDef, resolution, maxTextureSize, halfBits));
+            }
+
+            private void destroyLoadingResources() {
+                if (loadingResources != null) {
+                    loadingResources.destroy();
+                    loadingResources = null;
+                }
+            }
+
+            private boolean isStale(FractResources resources) {
+                if (resources == null || !resources.recreateOnResolutionChange)
+                    return false;
+                FractPixel packingResolution = resources.packingResolution;
+                return width != packingResolution.x || height != packingResolution.y;
+            }
+
+            private void loadBundle(FractScreen screen) {
+                if (preloadedResources != null) {
+                    preloadedResources.destroy();
+                    preloadedResources = null;
+                }
+                preloadedScreen = null;
+                bundleScreen = screen;
+                bundleLoader.start(screen.resourceSource, new FractPixel(width, height), maxTextureSize);
+            }
+
+            private void updateBundle(long frameTime) {
+                FractResources loaded;
+                FractTrace.begin(FractTrace.UPLOAD_RESOURCES);
+                try {
+                    loaded = bundleLoader.poll(frameTime + uploadBudget);
+                } finally {
+                    FractTrace.end();
+                }
+                batch.restoreTexture();
+                if (bundleLoader.isLoading())
+                    return;
+                FractScreen screen = bundleScreen;
+                bundleScreen = null;
+                if (screen == currentScreen) {
+                    if (screenResources != null)
+                        screenResources.destroy();
+                    screenResources = loaded;
+                } else {
+                    preloadedScreen = screen;
+                    preloadedResources = loaded;
+                }
+            }
+
+            private boolean isReady(FractScreen screen) {
+                return !screen.hasResources() || screen == preloadedScreen;
+            }
+
+            private void switchScreen(FractScreen screen) {
+                if (bundleScreen == currentScreen) {
+                    bundleLoader.cancel();
+                    bundleScreen = null;
+                }
+                currentScreen.hide();
+                currentScreen = screen;
+                nextScreen = null;
+                if (screenResources != null)
+                    screenResources.destroy();
+                if (screen == preloadedScreen)
+                    screenResources = preloadedResources;
+                else {
+                    screenResources = null;
+                    if (preloadedResources != null)
+                        preloadedResources.destroy();
+                }
+                preloadedResources = null;
+                preloadedScreen = null;
+                inputHandler.setScreen(currentScreen);
+                currentScreen.set(width, height);
+            }
+
+            private void updateLoading(long frameTime) {
+                FractResources loaded;
+                FractTrace.begin(FractTrace.UPLOAD_RESOURCES);
+                try {
+                    loaded = loader.poll(frameTime + uploadBudget);
+                } finally {
+                    FractTrace.end();
+                }
+                batch.restoreTexture();
+                if (loaded != null) {
+                    if (resources != null)
+                        resources.destroy();
+                    resources = loaded;
+                } else
+                    loadingScreen.setProgress(loader.getProgress());
+            }
+
+            private void updateResidency(long frameTime) {
+                long frame = batch.getFrame();
+                long deadline = frameTime + uploadBudget;
+                loader.adoptWrittenCache();
+                boolean changed = updateResidency(resources, frame, deadline);
+                changed |= updateResidency(screenResources, frame, deadline);
+                changed |= dynamicAtlas.update(frame, deadline, mustTrim);
+                mustTrim = false;
+                if (changed)
+                    batch.resetTextures();
+            }
+
+            private boolean updateResidency(FractResources resources, long frame, long deadline) {
+                if (resources == null)
+                    return false;
+                boolean changed = resources.updateResidency(frame, deadline);
+                if (mustTrim)
+                    changed |= resources.trimResidency(frame);
+                return changed;
             }
 
             @Override
             public void onDrawFrame(GL10 gl10) {
+                long frameTime = System.nanoTime();
                 if (mustReload) {
                     mustReload = false;
-                    reloadResources(width, height);
+                    reloadResources();
+                }
+                if (loader.isLoading())
+                    updateLoading(frameTime);
+                FractScreen next = nextScreen;
+                if (next != null && !isReady(next) && next != bundleScreen && (showingLoadingScreen || bundleScreen != currentScreen))
+                    loadBundle(next);
+                if (bundleLoader.isLoading() && !loader.isLoading())
+                    updateBundle(frameTime);
+                if (showingLoadingScreen && !loader.isLoading() && (next == null ? bundleScreen != currentScreen : isReady(next))) {
+                    loadingScreen.hide();
+                    showingLoadingScreen = false;
+                    destroyLoadingResources();
+                    time = System.nanoTime();
                 }
-                if (nextScreen != null) {
-                    currentScreen.hide();
-                    currentScreen = nextScreen;
-                    nextScreen = null;
-                    inputHandler.setScreen(currentScreen);
-                    currentScreen.set(width, height);
+                updateResidency(frameTime);
+                FractScreen screen;
+                if (showingLoadingScreen)
+                    screen = loadingScreen;
+                else {
+                    if (next != null && isReady(next))
+                        switchScreen(next);
+                    inputHandler.fire();
+                    screen = currentScreen;
+                    if (usageProfile != null)
+                        usageProfile.beginFrame(screen);
                 }
-                inputHandler.fire();
-                FractColor c = currentScreen.clearColor;
+                FractColor c = screen.clearColor;
                 if (c instanceof FractColor.RGB) {
                     FractColor.RGB cRGB = (FractColor.RGB) c;
-                    GLES20.glClearColor(cRGB.r, cRGB.g, cRGB.b, cRGB.a);
+                    gl.glClearColor(cRGB.r, cRGB.g, cRGB.b, cRGB.a);
                 } else {
                     int cPacked = c.packInt();
-                    GLES20.glClearColor(FractColor.getR(cPacked), FractColor.getG(cPacked), FractColor.getB(cPacked), c.a);
+                    gl.glClearColor(FractColor.getR(cPacked), FractColor.getG(cPacked), FractColor.getB(cPacked), c.a);
                 }
 
-                GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+                gl.glClear(GLES20.GL_COLOR_BUFFER_BIT);
                 long actualTime = System.nanoTime();
                 float deltaTime = (float) (actualTime - time) * FractMath.NANO_TO_SECONDS;
+                drawer.screen = screen;
                 drawer.valid = true;
-                currentScreen.render(drawer, deltaTime);
+                FractTrace.begin(FractTrace.SCREEN_RENDER);
+                try {
+                    screen.render(drawer, deltaTime);
+                } finally {
+                    FractTrace.end();
+                }
                 drawer.valid = false;
-                batch.flush();
+                if (hud != null && hud.visible && resources != null)
+                    hud.draw(batch, resources, frameStats, deltaTime);
+                batch.flush(FractBatch.FLUSH_FRAME);
+                batch.endFrame();
                 time = actualTime;
+                frameStats.record(System.nanoTime() - frameTime, lastFrameTime == 0 ? 0 : frameTime - lastFrameTime);
+                lastFrameTime = frameTime;
             }
         }
 
@@ -428,7 +760,7 @@ public abstract class FractEngine {
         public void drawMasked(FractMaskCallback maskDrawer, boolean inverted) {
             validate();
             valid = false;
-            masker.draw(maskDrawer, inverted);
+            masker.draw(maskDrawer, inverted, screen);
             valid = true;
         }
     }
@@ -436,6 +768,7 @@ public abstract class FractEngine {
     public class Drawer {
 
         boolean valid;
+        FractScreen screen;
 
         Drawer() {
         }
@@ -443,12 +776,17 @@ public abstract class FractEngine {
 
         public final void draw(FractSprite sprite) {
             validate();
-            FractResources.Drawable drawable = sprite.pullCache(resources);
+            FractResources.Drawable drawable = sprite.pullCache(resources, getBundle());
             if (drawable == null) {
-                drawable = resources.getDrawable(sprite.drawableKey);
-                sprite.pushCache(drawable);
+                drawable = getDrawable(sprite.drawableKey);
+                if (drawable == null)
+                    return;
+                if (!dynamicAtlas.contains(sprite.drawableKey))
+                    sprite.pushCache(drawable);
             }
-            batch.draw(drawable, currentScreen.viewport, sprite.color, sprite.transform, sprite.sizing, sprite.horizontalOrigin, sprite.verticalOrigin);
+            if (usageProfile != null)
+                usageProfile.record(drawable.key);
+            batch.draw(drawable, screen.viewport, sprite.color, sprite.transform, sprite.sizing, sprite.horizontalOrigin, sprite.verticalOrigin);
         }
 
 
@@ -474,12 +812,31 @@ public abstract class FractEngine {
 
         public final void draw(String drawableKey, FractColor color, FractTransform transform, FractSizing sizing, FractOrigin horizontalOrigin, FractOrigin verticalOrigin) {
             validate();
-            batch.draw(resources.getDrawable(drawableKey), currentScreen.viewport, color, transform, sizing, horizontalOrigin, verticalOrigin);
+            if (usageProfile != null)
+                usageProfile.record(drawableKey);
+            FractResources.Drawable drawable = getDrawable(drawableKey);
+            if (drawable != null)
+                batch.draw(drawable, screen.viewport, color, transform, sizing, horizontalOrigin, verticalOrigin);
+        }
+
+        private FractResources.Drawable getDrawable(String drawableKey) {
+            if (dynamicAtlas.contains(drawableKey))
+                return dynamicAtlas.getDrawable(drawableKey, batch.getFrame());
+            FractResources bundle = getBundle();
+            if (bundle != null && bundle.hasDrawable(drawableKey))
+                return bundle.getDrawable(drawableKey);
+            if (resources == null)
+                throw new IllegalArgumentException("No such Drawable with key '" + drawableKey + "' while resources are loading");
+            return resources.getDrawable(drawableKey);
+        }
+
+        private FractResources getBundle() {
+            return screen == loadingScreen ? loadingResources : screenResources;
         }
 
         final void validate() {
-            if (valid) return;
-            throw new RuntimeException("Cannot draw outside method");
+            if (!valid)
+                throw new RuntimeException("Cannot draw outside method");
         }
 
     }
@@ -0,0 +1,193 @@
+package com.francescoz.fract.engine;
+
+final class FractEtc1 {
+
+    static final int GL_ETC1_RGB8_OES = 0x8D64;
+    private static final int BLOCK_BYTES = 8;
+    private static final int[][] MODIFIERS = {
+            {2, 8, -2, -8},
+            {5, 17, -5, -17},
+            {9, 29, -9, -29},
+            {13, 42, -13, -42},
+            {18, 60, -18, -60},
+            {24, 80, -24, -80},
+            {33, 106, -33, -106},
+            {47, 183, -47, -183}
+    };
+
+    private FractEtc1() {
+    }
+
+    static int getEncodedSize(int width, int height) {
+        return ((width + 3) >> 2) * ((height + 3) >> 2) * BLOCK_BYTES;
+    }
+
+    static byte[] encode(int[] pixels, int width, int height, boolean alpha) {
+        byte[] data = new byte[getEncodedSize(width, height)];
+        Block block = new Block();
+        int offset = 0;
+        for (int by = 0; by < height; by += 4)
+            for (int bx = 0; bx < width; bx += 4) {
+                for (int x = 0; x < 4; x++)
+                    for (int y = 0; y < 4; y++) {
+                        int pixel = pixels[Math.min(by + y, height - 1) * width + Math.min(bx + x, width - 1)];
+                        int i = x * 4 + y;
+                        if (alpha) {
+                            block.r[i] = block.g[i] = block.b[i] = pixel >>> 24;
+                        } else {
+                            block.r[i] = (pixel >> 16) & 0xFF;
+                            block.g[i] = (pixel >> 8) & 0xFF;
+                            block.b[i] = pixel & 0xFF;
+                        }
+                    }
+                block.encode(data, offset);
+                offset += BLOCK_BYTES;
+            }
+        return data;
+    }
+
+    private static final class Block {
+
+        final int[] r = new int[16];
+        final int[] g = new int[16];
+        final int[] b = new int[16];
+        private final int[] subBlock = new int[8];
+        private final int[] average = new int[6];
+        private final int[] base = new int[6];
+        private final int[] tables = new int[2];
+        private final int[] selectors = new int[16];
+        private final int[] bestSelectors = new int[16];
+
+        void encode(byte[] data, int offset) {
+            long bestError = Long.MAX_VALUE;
+            long bestHigh = 0;
+            for (int flip = 0; flip < 2; flip++) {
+                averages(flip);
+                for (int differential = 0; differential < 2; differential++) {
+                    long high = quantise(differential == 1) | (differential << 1) | flip;
+                    long error = 0;
+                    for (int s = 0; s < 2; s++) {
+                        members(flip, s);
+                        error += fit(s);
+                        if (error >= bestError)
+                            break;
+                    }
+                    if (error < bestError) {
+                        bestError = error;
+                        bestHigh = high | tables[0] << 5 | tables[1] << 2;
+                        System.arraycopy(selectors, 0, bestSelectors, 0, 16);
+                    }
+                }
+            }
+            long low = 0;
+            for (int i = 0; i < 16; i++) {
+                int selector = bestSelectors[i];
+                low |= (long) (selector & 1) << i | (long) (selector >> 1) << (i + 16);
+            }
+            long bits = bestHigh << 32 | low;
+            for (int i = 0; i < BLOCK_BYTES; i++)
+                data[offset + i] = (byte) (bits >>> (56 - i * 8));
+        }
+
+        private void members(int flip, int s) {
+            int count = 0;
+            for (int x = 0; x < 4; x++)
+                for (int y = 0; y < 4; y++)
+                    if ((flip == 0 ? x >> 1 : y >> 1) == s)
+                        subBlock[count++] = x * 4 + y;
+        }
+
+        private void averages(int flip) {
+            for (int s = 0; s < 2; s++) {
+                members(flip, s);
+                int sr = 0, sg = 0, sb = 0;
+                for (int i : subBlock) {
+                    sr += r[i];
+                    sg += g[i];
+                    sb += b[i];
+                }
+                average[s * 3] = sr;
+                average[s * 3 + 1] = sg;
+                average[s * 3 + 2] = sb;
+            }
+        }
+
+        private long quantise(boolean differential) {
+            long high = 0;
+            for (int c = 0; c < 3; c++) {
+                int shift = 59 - 32 - c * 8;
+                if (differential) {
+                    int first = quantise(average[c], 31);
+                    int delta = Math.min(Math.max(quantise(average[3 + c], 31) - first, -4), 3);
+                    base[c] = expand5(first);
+                    base[3 + c] = expand5(first + delta);
+                    high |= (long) first << shift | (long) (delta & 7) << (shift - 3);
+                } else {
+                    int first = quantise(average[c], 15);
+                    int second = quantise(average[3 + c], 15);
+                    base[c] = first * 17;
+                    base[3 + c] = second * 17;
+                    high |= (long) first << (shift + 1) | (long) second << (shift - 3);
+                }
+            }
+            return high;
+        }
+
+        private long fit(int s) {
+            int br = base[s * 3], bg = base[s * 3 + 1], bb = base[s * 3 + 2];
+            long bestError = Long.MAX_VALUE;
+            for (int t = 0; t < MODIFIERS.length; t++) {
+                int[] modifiers = MODIFIERS[t];
+                long error = 0;
+                for (int i : subBlock) {
+                    int pr = r[i], pg = g[i], pb = b[i];
+                    int bestPixelError = Integer.MAX_VALUE;
+                    for (int m = 0; m < 4; m++) {
+                        int modifier = modifiers[m];
+                        int dr = pr - clamp(br + modifier);
+                        int dg = pg - clamp(bg + modifier);
+                        int db = pb - clamp(bb + modifier);
+                        int pixelError = dr * dr + dg * dg + db * db;
+                        if (pixelError < bestPixelError)
+                            bestPixelError = pixelError;
+                    }
+                    error += bestPixelError;
+                    if (error >= bestError)
+                        break;
+                }
+                if (error < bestError) {
+                    bestError = error;
+                    tables[s] = t;
+                }
+            }
+            int[] modifiers = MODIFIERS[tables[s]];
+            for (int i : subBlock) {
+                int bestPixelError = Integer.MAX_VALUE;
+                for (int m = 0; m < 4; m++) {
+                    int dr = r[i] - clamp(br + modifiers[m]);
+                    int dg = g[i] - clamp(bg + modifiers[m]);
+                    int db = b[i] - clamp(bb + modifiers[m]);
+                    int pixelError = dr * dr + dg * dg + db * db;
+                    if (pixelError < bestPixelError) {
+                        bestPixelError = pixelError;
+                        selectors[i] = m;
+                    }
+                }
+            }
+            return bestError;
+        }
+
+        private static int quantise(int sum, int levels) {
+            return (sum * levels + 255 * 4) / (255 * 8);
+        }
+
+        private static int expand5(int value) {
+            return value << 3 | value >> 2;
+        }
+
+        private static int clamp(int value) {
+            return value < 0 ? 0 : value > 255 ? 255 : value;
+        }
+    }
+
+}
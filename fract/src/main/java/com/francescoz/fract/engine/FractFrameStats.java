@@ -0,0 +1,184 @@
+package com.francescoz.fract.engine;
+
+import com.francescoz.fract.utils.FractMath;
+
+public final class FractFrameStats {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MIN_EXPONENT = 16;
+    private static final int MAX_EXPONENT = 36;
+    private static final int BUCKETS = (MAX_EXPONENT - MIN_EXPONENT) * SUB_BUCKETS + 2;
+    private static final float NANO_TO_MILLIS = 1 / 1000000.0f;
+
+    private final Series cpuTime;
+    private final Series frameInterval;
+    private final boolean[] janks;
+    private final long jankThreshold;
+    private int jankCount;
+    private long totalJankCount;
+    private long totalFrameCount;
+
+    FractFrameStats(int window, float jankThreshold) {
+        if (window < 1)
+            throw new IllegalArgumentException("Window must be positive");
+        cpuTime = new Series(window);
+        frameInterval = new Series(window);
+        janks = new boolean[window];
+        this.jankThreshold = (long) (jankThreshold / FractMath.NANO_TO_SECONDS);
+    }
+
+    private static int bucketOf(long nanos) {
+        if (nanos < (1L << MIN_EXPONENT))
+            return 0;
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent >= MAX_EXPONENT)
+            return BUCKETS - 1;
+        int mantissa = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - MIN_EXPONENT) * SUB_BUCKETS + mantissa + 1;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket == 0)
+            return 1L << MIN_EXPONENT;
+        if (bucket == BUCKETS - 1)
+            return Long.MAX_VALUE;
+        int exponent = (bucket - 1) / SUB_BUCKETS + MIN_EXPONENT;
+        int mantissa = (bucket - 1) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + mantissa + 1) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    synchronized void record(long cpuNanos, long intervalNanos) {
+        totalFrameCount++;
+        cpuTime.add(cpuNanos);
+        if (intervalNanos <= 0)
+            return;
+        int slot = frameInterval.add(intervalNanos);
+        if (janks[slot])
+            jankCount--;
+        boolean jank = intervalNanos > jankThreshold;
+        janks[slot] = jank;
+        if (jank) {
+            jankCount++;
+            totalJankCount++;
+        }
+    }
+
+    public synchronized void reset() {
+        cpuTime.clear();
+        frameInterval.clear();
+        for (int i = 0; i < janks.length; i++)
+            janks[i] = false;
+        jankCount = 0;
+    }
+
+    public synchronized void snapshot(Report report) {
+        cpuTime.snapshot(report.cpuTime);
+        frameInterval.snapshot(report.frameInterval);
+        report.jankCount = jankCount;
+        report.totalJankCount = totalJankCount;
+        report.totalFrameCount = totalFrameCount;
+    }
+
+    public Report snapshot() {
+        Report report = new Report();
+        snapshot(report);
+        return report;
+    }
+
+    public synchronized int getJankCount() {
+        return jankCount;
+    }
+
+    public synchronized float getCpuTimePercentile(float percentile) {
+        return cpuTime.getPercentile(percentile) * NANO_TO_MILLIS;
+    }
+
+    public synchronized float getFrameIntervalPercentile(float percentile) {
+        return frameInterval.getPercentile(percentile) * NANO_TO_MILLIS;
+    }
+
+    public static final class Report {
+
+        public final SeriesReport cpuTime = new SeriesReport();
+        public final SeriesReport frameInterval = new SeriesReport();
+        public int jankCount;
+        public long totalJankCount;
+        public long totalFrameCount;
+
+    }
+
+    public static final class SeriesReport {
+
+        public int samples;
+        public float p50, p90, p99, max;
+
+    }
+
+    private static final class Series {
+
+        private final long[] samples;
+        private final int[] buckets;
+        private int next;
+        private int count;
+
+        private Series(int window) {
+            samples = new long[window];
+            buckets = new int[BUCKETS];
+        }
+
+        private int add(long nanos) {
+            int slot = next;
+            if (count == samples.length)
+                buckets[bucketOf(samples[slot])]--;
+            else
+                count++;
+            samples[slot] = nanos;
+            buckets[bucketOf(nanos)]++;
+            next = (slot + 1) % samples.length;
+            return slot;
+        }
+
+        private void clear() {
+            for (int i = 0; i < BUCKETS; i++)
+                buckets[i] = 0;
+            next = count = 0;
+        }
+
+        private long getPercentile(float percentile) {
+            if (count == 0)
+                return 0;
+            int rank = (int) Math.ceil(percentile * count);
+            if (rank < 1)
+                rank = 1;
+            int seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= rank)
+                    return Math.min(upperBoundOf(i), getMax());
+            }
+            return getMax();
+        }
+
+        private long getMax() {
+            long max = 0;
+            int first = (next - count + samples.length) % samples.length;
+            for (int i = 0; i < count; i++) {
+                long sample = samples[(first + i) % samples.length];
+                if (sample > max)
+                    max = sample;
+            }
+            return max;
+        }
+
+        private void snapshot(SeriesReport report) {
+            report.samples = count;
+            report.p50 = getPercentile(0.5f) * NANO_TO_MILLIS;
+            report.p90 = getPercentile(0.9f) * NANO_TO_MILLIS;
+            report.p99 = getPercentile(0.99f) * NANO_TO_MILLIS;
+            report.max = getMax() * NANO_TO_MILLIS;
+        }
+
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.francescoz.fract.engine;
+
+import android.graphics.Bitmap;
+
+import java.nio.Buffer;
+
+interface FractGL {
+
+    void glActiveTexture(int texture);
+
+    void glAttachShader(int program, int shader);
+
+    void glBindAttribLocation(int program, int index, String name);
+
+    void glBindBuffer(int target, int buffer);
+
+    void glBindFramebuffer(int target, int framebuffer);
+
+    void glBindTexture(int target, int texture);
+
+    void glBlendEquation(int mode);
+
+    void glBlendFunc(int sfactor, int dfactor);
+
+    void glBlendFuncSeparate(int srcRGB, int dstRGB, int srcAlpha, int dstAlpha);
+
+    void glBufferData(int target, int size, Buffer data, int usage);
+
+    void glClear(int mask);
+
+    void glClearColor(float red, float green, float blue, float alpha);
+
+    void glCompileShader(int shader);
+
+    void glCompressedTexImage2D(int target, int level, int internalformat, int width, int height, int border, int imageSize, Buffer data);
+
+    int glCreateProgram();
+
+    int glCreateShader(int type);
+
+    void glDeleteFramebuffers(int n, int[] framebuffers, int offset);
+
+    void glDeleteProgram(int program);
+
+    void glDeleteShader(int shader);
+
+    void glDeleteTextures(int n, int[] textures, int offset);
+
+    void glDepthMask(boolean flag);
+
+    void glDetachShader(int program, int shader);
+
+    void glDrawElements(int mode, int count, int type, int offset);
+
+    void glEnable(int cap);
+
+    void glEnableVertexAttribArray(int index);
+
+    void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level);
+
+    void glGenBuffers(int n, int[] buffers, int offset);
+
+    void glGenFramebuffers(int n, int[] framebuffers, int offset);
+
+    void glGenTextures(int n, int[] textures, int offset);
+
+    void glGenerateMipmap(int target);
+
+    void glGetIntegerv(int pname, int[] params, int offset);
+
+    String glGetProgramInfoLog(int program);
+
+    void glGetProgramiv(int program, int pname, int[] params, int offset);
+
+    String glGetShaderInfoLog(int shader);
+
+    void glGetShaderiv(int shader, int pname, int[] params, int offset);
+
+    int glGetUniformLocation(int program, String name);
+
+    void glLinkProgram(int program);
+
+    void glPixelStorei(int pname, int param);
+
+    void glShaderSource(int shader, String string);
+
+    void glTexImage2D(int target, int level, int internalformat, int width, int height, int border, int format, int type, Buffer pixels);
+
+    void glTexParameteri(int target, int pname, int param);
+
+    void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height, int format, int type, Buffer pixels);
+
+    void glUniform1f(int location, float x);
+
+    void glUniform1i(int location, int x);
+
+    void glUseProgram(int program);
+
+    void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, Buffer ptr);
+
+    void texImage2D(int target, int level, int internalformat, Bitmap bitmap, int border);
+
+    void texSubImage2D(int target, int level, int xoffset, int yoffset, Bitmap bitmap);
+
+}
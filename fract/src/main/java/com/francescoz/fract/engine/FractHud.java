@@ -0,0 +1,204 @@
+package com.francescoz.fract.engine;
+
+import android.graphics.Typeface;
+
+import com.francescoz.fract.utils.FractColor;
+import com.francescoz.fract.utils.FractOrigin;
+import com.francescoz.fract.utils.FractPixel;
+import com.francescoz.fract.utils.FractSizing;
+import com.francescoz.fract.utils.FractTransform;
+
+import java.util.Arrays;
+
+final class FractHud {
+
+    private static final String KEY_PREFIX = "fract.hud.";
+    private static final String BAR_KEY = KEY_PREFIX + "bar";
+    private static final String CHARSET = "0123456789.FPSCUMAXJNKDRWBITL";
+    private static final int PRIORITY = Integer.MAX_VALUE / 2;
+    private static final int LINES = 40;
+    private static final int TEXT_LINES = 5;
+    private static final int GRAPH_SAMPLES = 48;
+    private static final float GRAPH_HEIGHT = 4;
+    private static final float GRAPH_BAR_WIDTH = 0.4f;
+    private static final float REPORT_INTERVAL = 0.25f;
+
+    private final FractScreen.Viewport viewport;
+    private final FractTransform transform;
+    private final FractColor.RGB textColor, backgroundColor, goodColor, badColor;
+    private final FractFrameStats.Report report;
+    private final float[] intervals;
+    private final char[] text;
+    private final FractResources.Drawable[] glyphs;
+    private final float jankThreshold;
+    private FractResources.Drawable bar;
+    private FractResources resolvedResources;
+    private int nextInterval;
+    private int filledIntervals;
+    private long lastFrame = -1;
+    private int textLength;
+    private float reportAge;
+    volatile boolean visible;
+
+    FractHud(float jankThreshold) {
+        this.jankThreshold = jankThreshold;
+        viewport = new FractScreen.Viewport();
+        viewport.sizing = FractSizing.FIXED_H;
+        viewport.horizontalOrigin = FractOrigin.LEFT_BOTTOM;
+        viewport.verticalOrigin = FractOrigin.LEFT_BOTTOM;
+        viewport.fixedSize = LINES;
+        transform = new FractTransform();
+        textColor = new FractColor.RGB(FractColor.WHITE);
+        backgroundColor = new FractColor.RGB(0, 0, 0, 0.6f);
+        goodColor = new FractColor.RGB(FractColor.GREEN);
+        badColor = new FractColor.RGB(FractColor.RED);
+        report = new FractFrameStats.Report();
+        intervals = new float[GRAPH_SAMPLES];
+        text = new char[64];
+        glyphs = new FractResources.Drawable[128];
+        reportAge = REPORT_INTERVAL;
+    }
+
+    static void addDrawables(FractResourcesDef resourcesDef, FractPixel resolution) {
+        int size = Math.max(8, resolution.y / LINES);
+        for (int i = 0; i < CHARSET.length(); i++) {
+            String glyph = CHARSET.substring(i, i + 1);
+            resourcesDef.addDrawable(new FractResourcesDef.FontDrawable(PRIORITY, KEY_PREFIX + glyph, glyph, size, Typeface.MONOSPACE));
+        }
+        resourcesDef.addDrawable(new FractResourcesDef.RectDrawable(PRIORITY, BAR_KEY));
+    }
+
+    static boolean isSupportedBy(FractResources.PackedResourceDef packedResourceDef) {
+        return packedResourceDef.hasDrawable(BAR_KEY);
+    }
+
+    void resize(int width, int height) {
+        viewport.size(width, height);
+    }
+
+    private void resolve(FractResources resources) {
+        for (int i = 0; i < CHARSET.length(); i++) {
+            char c = CHARSET.charAt(i);
+            glyphs[c] = resources.getDrawable(KEY_PREFIX + c);
+        }
+        bar = resources.getDrawable(BAR_KEY);
+        resolvedResources = resources;
+    }
+
+    void draw(FractBatch batch, FractResources resources, FractFrameStats frameStats, float deltaTime) {
+        if (resources != resolvedResources)
+            resolve(resources);
+        long frame = batch.getFrame();
+        if (frame != lastFrame + 1) {
+            Arrays.fill(intervals, 0);
+            nextInterval = filledIntervals = 0;
+        }
+        lastFrame = frame;
+        intervals[nextInterval] = deltaTime;
+        nextInterval = (nextInterval + 1) % GRAPH_SAMPLES;
+        if (filledIntervals < GRAPH_SAMPLES)
+            filledIntervals++;
+        reportAge += deltaTime;
+        if (reportAge >= REPORT_INTERVAL) {
+            frameStats.snapshot(report);
+            reportAge = 0;
+        }
+        float charWidth = glyphs['0'].aspectRatio;
+        float top = LINES - TEXT_LINES;
+        float graphWidth = GRAPH_SAMPLES * GRAPH_BAR_WIDTH;
+        drawRect(batch, backgroundColor, 0, top - GRAPH_HEIGHT, Math.max(graphWidth, charWidth * 20), TEXT_LINES + GRAPH_HEIGHT);
+
+        float intervalSum = 0;
+        for (float interval : intervals)
+            intervalSum += interval;
+        begin("FPS ");
+        appendFixed(intervalSum > 0 ? filledIntervals / intervalSum : 0);
+        drawText(batch, charWidth, top + 4);
+
+        begin("CPU P50 ");
+        appendFixed(report.cpuTime.p50);
+        append(" P99 ");
+        appendFixed(report.cpuTime.p99);
+        drawText(batch, charWidth, top + 3);
+
+        begin("MAX ");
+        appendFixed(report.frameInterval.max);
+        append(" JANK ");
+        appendInt(report.jankCount);
+        drawText(batch, charWidth, top + 2);
+
+        begin("DRAW ");
+        appendInt(batch.getDrawCalls());
+        append(" SPR ");
+        appendInt(batch.getSpritesDrawn());
+        drawText(batch, charWidth, top + 1);
+
+        begin("BIND ");
+        appendInt(batch.getTextureBinds());
+        append(" ATLAS ");
+        appendFixed(resources.textureMemory / (1024.0f * 1024.0f));
+        append("MB");
+        drawText(batch, charWidth, top);
+
+        for (int i = 0; i < GRAPH_SAMPLES; i++) {
+            float interval = intervals[(nextInterval + i) % GRAPH_SAMPLES];
+            float height = Math.min(interval / (2 * jankThreshold), 1) * GRAPH_HEIGHT;
+            if (height > 0)
+                drawRect(batch, interval > jankThreshold ? badColor : goodColor, i * GRAPH_BAR_WIDTH, top - GRAPH_HEIGHT, GRAPH_BAR_WIDTH, height);
+        }
+    }
+
+    private void drawRect(FractBatch batch, FractColor color, float x, float y, float width, float height) {
+        transform.translation.set(x, y);
+        transform.scale.set(width, height);
+        batch.draw(bar, viewport, color, transform, FractSizing.FIXED_WH, FractOrigin.LEFT_BOTTOM, FractOrigin.LEFT_BOTTOM);
+    }
+
+    private void drawText(FractBatch batch, float charWidth, float y) {
+        transform.scale.set(charWidth, 1);
+        for (int i = 0; i < textLength; i++) {
+            char c = text[i];
+            if (c != ' ') {
+                transform.translation.set(i * charWidth, y);
+                batch.draw(glyphs[c], viewport, textColor, transform, FractSizing.FIXED_WH, FractOrigin.LEFT_BOTTOM, FractOrigin.LEFT_BOTTOM);
+            }
+        }
+    }
+
+    private void begin(String label) {
+        textLength = 0;
+        append(label);
+    }
+
+    private void append(String string) {
+        for (int i = 0; i < string.length() && textLength < text.length; i++)
+            text[textLength++] = string.charAt(i);
+    }
+
+    private void appendInt(int value) {
+        if (value < 0)
+            value = 0;
+        int start = textLength;
+        do {
+            if (textLength == text.length)
+                return;
+            text[textLength++] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        for (int i = start, j = textLength - 1; i < j; i++, j--) {
+            char c = text[i];
+            text[i] = text[j];
+            text[j] = c;
+        }
+    }
+
+    private void appendFixed(float value) {
+        int tenths = Math.round(value * 10);
+        appendInt(tenths / 10);
+        if (textLength < text.length - 1) {
+            text[textLength++] = '.';
+            text[textLength++] = (char) ('0' + Math.max(tenths, 0) % 10);
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+package com.francescoz.fract.engine;
+
+import java.util.Arrays;
+
+final class FractHull {
+
+    static final int MAX_VERTICES = 16;
+    private static final int MIN_AREA = 32 * 32;
+    private static final float MAX_COVERAGE = 0.85f;
+    private static final double EPSILON = 1e-6;
+
+    private FractHull() {
+    }
+
+    static float[] compute(int[] pixels, int stride, int left, int top, int width, int height, int maxVertices) {
+        if (width * height < MIN_AREA)
+            return null;
+        long[] points = new long[height * 4];
+        int pointCount = 0;
+        for (int y = 0; y < height; y++) {
+            int row = (top + y) * stride + left;
+            int first = 0;
+            while (first < width && pixels[row + first] >>> 24 == 0)
+                first++;
+            if (first == width)
+                continue;
+            int last = width - 1;
+            while (pixels[row + last] >>> 24 == 0)
+                last--;
+            points[pointCount++] = pack(first, y);
+            points[pointCount++] = pack(first, y + 1);
+            points[pointCount++] = pack(last + 1, y);
+            points[pointCount++] = pack(last + 1, y + 1);
+        }
+        if (pointCount < 3)
+            return null;
+        Arrays.sort(points, 0, pointCount);
+        double[] x = new double[pointCount * 2];
+        double[] y = new double[pointCount * 2];
+        int n = 0;
+        for (int i = 0; i < pointCount; i++)
+            n = push(x, y, n, 2, points[i]);
+        for (int i = pointCount - 2, lower = n + 1; i >= 0; i--)
+            n = push(x, y, n, lower, points[i]);
+        n--;
+        while (n > maxVertices) {
+            int best = -1;
+            double bestArea = Double.MAX_VALUE;
+            double bestX = 0, bestY = 0;
+            for (int b = 0; b < n; b++) {
+                int a = (b + n - 1) % n;
+                int c = (b + 1) % n;
+                int d = (b + 2) % n;
+                double d1x = x[b] - x[a], d1y = y[b] - y[a];
+                double d2x = x[c] - x[d], d2y = y[c] - y[d];
+                double denominator = d1x * d2y - d1y * d2x;
+                if (Math.abs(denominator) < EPSILON)
+                    continue;
+                double ex = x[c] - x[b], ey = y[c] - y[b];
+                double t = (ex * d2y - ey * d2x) / denominator;
+                double s = (ex * d1y - ey * d1x) / denominator;
+                if (t <= 0 || s <= 0)
+                    continue;
+                double px = x[b] + t * d1x;
+                double py = y[b] + t * d1y;
+                if (px < -EPSILON || py < -EPSILON || px > width + EPSILON || py > height + EPSILON)
+                    continue;
+                double area = Math.abs(ex * (py - y[b]) - ey * (px - x[b]));
+                if (area < bestArea) {
+                    best = b;
+                    bestArea = area;
+                    bestX = px;
+                    bestY = py;
+                }
+            }
+            if (best < 0)
+                return null;
+            x[best] = bestX;
+            y[best] = bestY;
+            int removed = (best + 1) % n;
+            n--;
+            System.arraycopy(x, removed + 1, x, removed, n - removed);
+            System.arraycopy(y, removed + 1, y, removed, n - removed);
+        }
+        double area = 0;
+        for (int i = 0, j = n - 1; i < n; j = i++)
+            area += x[j] * y[i] - x[i] * y[j];
+        if (Math.abs(area) / 2 > MAX_COVERAGE * width * height)
+            return null;
+        float[] hull = new float[n * 2];
+        for (int i = 0; i < n; i++) {
+            hull[i * 2] = (float) Math.min(Math.max(x[i] / width, 0), 1);
+            hull[i * 2 + 1] = (float) Math.min(Math.max(y[i] / height, 0), 1);
+        }
+        return hull;
+    }
+
+    static short[] triangulate(int vertexCount) {
+        short[] indices = new short[(vertexCount - 2) * 3];
+        for (int i = 0; i < vertexCount - 2; i++) {
+            indices[i * 3] = 0;
+            indices[i * 3 + 1] = (short) (i + 1);
+            indices[i * 3 + 2] = (short) (i + 2);
+        }
+        return indices;
+    }
+
+    private static int push(double[] x, double[] y, int n, int min, long point) {
+        int px = (int) (point >> 32);
+        int py = (int) point;
+        while (n >= min && (x[n - 1] - x[n - 2]) * (py - y[n - 2]) - (y[n - 1] - y[n - 2]) * (px - x[n - 2]) <= 0)
+            n--;
+        x[n] = px;
+        y[n] = py;
+        return n + 1;
+    }
+
+    private static long pack(int x, int y) {
+        return (long) x << 32 | y;
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.francescoz.fract.engine;
+
+import android.content.ComponentCallbacks2;
+
+final class FractLifecycle {
+
+    private final Surface surface;
+    private final Listener listener;
+    private final Runnable pauseEvent;
+    private final Runnable resumeEvent;
+    private final Runnable releaseEvent;
+    private boolean paused;
+
+    FractLifecycle(Surface surface, final Listener listener) {
+        this.surface = surface;
+        this.listener = listener;
+        pauseEvent = new Runnable() {
+            @Override
+            public void run() {
+                listener.onPause();
+            }
+        };
+        resumeEvent = new Runnable() {
+            @Override
+            public void run() {
+                listener.onResume();
+            }
+        };
+        releaseEvent = new Runnable() {
+            @Override
+            public void run() {
+                listener.onReleaseMemory();
+            }
+        };
+    }
+
+    static boolean shouldReleaseMemory(int level) {
+        return level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW && level != ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN;
+    }
+
+    boolean isPaused() {
+        return paused;
+    }
+
+    void pause() {
+        if (paused)
+            return;
+        paused = true;
+        surface.queueEvent(pauseEvent);
+        surface.onPause();
+    }
+
+    void resume() {
+        if (!paused)
+            return;
+        paused = false;
+        surface.onResume();
+        surface.queueEvent(resumeEvent);
+    }
+
+    void trimMemory(int level) {
+        if (shouldReleaseMemory(level))
+            surface.queueEvent(releaseEvent);
+    }
+
+    interface Surface {
+
+        void onPause();
+
+        void onResume();
+
+        void queueEvent(Runnable event);
+
+    }
+
+    interface Listener {
+
+        void onPause();
+
+        void onResume();
+
+        void onReleaseMemory();
+
+    }
+
+}
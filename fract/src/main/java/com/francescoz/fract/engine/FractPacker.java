@@ -0,0 +1,417 @@
+package com.francescoz.fract.engine;
+
+public interface FractPacker {
+
+    void reset(int width, int height);
+
+    boolean insert(int width, int height, boolean rotatable, int[] placement);
+
+    interface Factory {
+
+        FractPacker create();
+
+    }
+
+    final class MaxRects implements FractPacker {
+
+        public static final Factory FACTORY = new Factory() {
+            @Override
+            public FractPacker create() {
+                return new MaxRects();
+            }
+        };
+
+        private int[] freeX, freeY, freeW, freeH;
+        private int freeCount;
+
+        public MaxRects() {
+            freeX = new int[64];
+            freeY = new int[64];
+            freeW = new int[64];
+            freeH = new int[64];
+        }
+
+        @Override
+        public void reset(int width, int height) {
+            freeCount = 0;
+            add(0, 0, width, height);
+        }
+
+        @Override
+        public boolean insert(int width, int height, boolean rotatable, int[] placement) {
+            int best = -1;
+            int bestShortSide = Integer.MAX_VALUE;
+            int bestLongSide = Integer.MAX_VALUE;
+            boolean bestRotated = false;
+            for (int i = 0; i < freeCount; i++) {
+                int fw = freeW[i];
+                int fh = freeH[i];
+                if (fw >= width && fh >= height) {
+                    int shortSide = Math.min(fw - width, fh - height);
+                    int longSide = Math.max(fw - width, fh - height);
+                    if (shortSide < bestShortSide || (shortSide == bestShortSide && longSide < bestLongSide)) {
+                        best = i;
+                        bestShortSide = shortSide;
+                        bestLongSide = longSide;
+                        bestRotated = false;
+                    }
+                }
+                if (rotatable && fw >= height && fh >= width) {
+                    int shortSide = Math.min(fw - height, fh - width);
+                    int longSide = Math.max(fw - height, fh - width);
+                    if (shortSide < bestShortSide || (shortSide == bestShortSide && longSide < bestLongSide)) {
+                        best = i;
+                        bestShortSide = shortSide;
+                        bestLongSide = longSide;
+                        bestRotated = true;
+                    }
+                }
+            }
+            if (best < 0)
+                return false;
+            int x = freeX[best];
+            int y = freeY[best];
+            int w = bestRotated ? height : width;
+            int h = bestRotated ? width : height;
+            int oldCount = freeCount;
+            for (int i = 0; i < oldCount; i++)
+                if (split(i, x, y, w, h))
+                    freeW[i] = 0;
+            prune(oldCount);
+            placement[0] = x;
+            placement[1] = y;
+            placement[2] = bestRotated ? 1 : 0;
+            return true;
+        }
+
+        private boolean split(int index, int x, int y, int w, int h) {
+            int fx = freeX[index];
+            int fy = freeY[index];
+            int fw = freeW[index];
+            int fh = freeH[index];
+            if (x >= fx + fw || x + w <= fx || y >= fy + fh || y + h <= fy)
+                return false;
+            if (y > fy)
+                add(fx, fy, fw, y - fy);
+            if (y + h < fy + fh)
+                add(fx, y + h, fw, fy + fh - y - h);
+            if (x > fx)
+                add(fx, fy, x - fx, fh);
+            if (x + w < fx + fw)
+                add(x + w, fy, fx + fw - x - w, fh);
+            return true;
+        }
+
+        private void prune(int firstNew) {
+            for (int i = firstNew; i < freeCount; i++) {
+                if (freeW[i] == 0)
+                    continue;
+                for (int j = 0; j < freeCount; j++) {
+                    if (j == i || freeW[j] == 0)
+                        continue;
+                    if (contains(j, i) && (j < i || !contains(i, j))) {
+                        freeW[i] = 0;
+                        break;
+                    }
+                }
+            }
+            int count = 0;
+            for (int i = 0; i < freeCount; i++) {
+                if (freeW[i] == 0)
+                    continue;
+                freeX[count] = freeX[i];
+                freeY[count] = freeY[i];
+                freeW[count] = freeW[i];
+                freeH[count] = freeH[i];
+                count++;
+            }
+            freeCount = count;
+        }
+
+        private boolean contains(int outer, int inner) {
+            return freeX[inner] >= freeX[outer] && freeY[inner] >= freeY[outer]
+                    && freeX[inner] + freeW[inner] <= freeX[outer] + freeW[outer]
+                    && freeY[inner] + freeH[inner] <= freeY[outer] + freeH[outer];
+        }
+
+        private void add(int x, int y, int w, int h) {
+            if (freeCount == freeX.length) {
+                int capacity = freeCount * 2;
+                freeX = grow(freeX, capacity);
+                freeY = grow(freeY, capacity);
+                freeW = grow(freeW, capacity);
+                freeH = grow(freeH, capacity);
+            }
+            freeX[freeCount] = x;
+            freeY[freeCount] = y;
+            freeW[freeCount] = w;
+            freeH[freeCount] = h;
+            freeCount++;
+        }
+
+        private static int[] grow(int[] array, int capacity) {
+            int[] grown = new int[capacity];
+            System.arraycopy(array, 0, grown, 0, array.length);
+            return grown;
+        }
+
+    }
+
+    final class Skyline implements FractPacker {
+
+        public static final Factory FACTORY = new Factory() {
+            @Override
+            public FractPacker create() {
+                return new Skyline();
+            }
+        };
+
+        private int[] segmentX, segmentY, segmentW;
+        private int segmentCount;
+        private int width, height;
+
+        public Skyline() {
+            segmentX = new int[64];
+            segmentY = new int[64];
+            segmentW = new int[64];
+        }
+
+        @Override
+        public void reset(int width, int height) {
+            this.width = width;
+            this.height = height;
+            segmentX[0] = 0;
+            segmentY[0] = 0;
+            segmentW[0] = width;
+            segmentCount = 1;
+        }
+
+        @Override
+        public boolean insert(int width, int height, boolean rotatable, int[] placement) {
+            int best = -1;
+            int bestY = 0;
+            int bestTop = Integer.MAX_VALUE;
+            int bestSegmentWidth = Integer.MAX_VALUE;
+            boolean bestRotated = false;
+            for (int i = 0; i < segmentCount; i++) {
+                int y = fit(i, width, height);
+                if (y >= 0 && (y + height < bestTop || (y + height == bestTop && segmentW[i] < bestSegmentWidth))) {
+                    best = i;
+                    bestY = y;
+                    bestTop = y + height;
+                    bestSegmentWidth = segmentW[i];
+                    bestRotated = false;
+                }
+                if (rotatable) {
+                    y = fit(i, height, width);
+                    if (y >= 0 && (y + width < bestTop || (y + width == bestTop && segmentW[i] < bestSegmentWidth))) {
+                        best = i;
+                        bestY = y;
+                        bestTop = y + width;
+                        bestSegmentWidth = segmentW[i];
+                        bestRotated = true;
+                    }
+                }
+            }
+            if (best < 0)
+                return false;
+            int x = segmentX[best];
+            place(best, x, bestTop, bestRotated ? height : width);
+            placement[0] = x;
+            placement[1] = bestY;
+            placement[2] = bestRotated ? 1 : 0;
+            return true;
+        }
+
+        private int fit(int index, int w, int h) {
+            int x = segmentX[index];
+            if (x + w > width)
+                return -1;
+            int y = 0;
+            int widthLeft = w;
+            for (int i = index; widthLeft > 0; i++) {
+                y = Math.max(y, segmentY[i]);
+                if (y + h > height)
+                    return -1;
+                widthLeft -= segmentW[i];
+            }
+            return y;
+        }
+
+        private void place(int index, int x, int top, int w) {
+            if (segmentCount == segmentX.length) {
+                int capacity = segmentCount * 2;
+                segmentX = MaxRects.grow(segmentX, capacity);
+                segmentY = MaxRects.grow(segmentY, capacity);
+                segmentW = MaxRects.grow(segmentW, capacity);
+            }
+            System.arraycopy(segmentX, index, segmentX, index + 1, segmentCount - index);
+            System.arraycopy(segmentY, index, segmentY, index + 1, segmentCount - index);
+            System.arraycopy(segmentW, index, segmentW, index + 1, segmentCount - index);
+            segmentX[index] = x;
+            segmentY[index] = top;
+            segmentW[index] = w;
+            segmentCount++;
+            int right = x + w;
+            int next = index + 1;
+            while (next < segmentCount && segmentX[next] < right) {
+                int overlap = right - segmentX[next];
+                if (overlap >= segmentW[next]) {
+                    remove(next);
+                } else {
+                    segmentX[next] += overlap;
+                    segmentW[next] -= overlap;
+                    break;
+                }
+            }
+            for (int i = 0; i < segmentCount - 1; ) {
+                if (segmentY[i] == segmentY[i + 1]) {
+                    segmentW[i] += segmentW[i + 1];
+                    remove(i + 1);
+                } else
+                    i++;
+            }
+        }
+
+        private void remove(int index) {
+            segmentCount--;
+            System.arraycopy(segmentX, index + 1, segmentX, index, segmentCount - index);
+            System.arraycopy(segmentY, index + 1, segmentY, index, segmentCount - index);
+            System.arraycopy(segmentW, index + 1, segmentW, index, segmentCount - index);
+        }
+
+    }
+
+    final class Guillotine implements FractPacker {
+
+        public static final Factory FACTORY = new Factory() {
+            @Override
+            public FractPacker create() {
+                return new Guillotine();
+            }
+        };
+
+        private int[] freeX, freeY, freeW, freeH;
+        private int freeCount;
+        private int pageWidth, pageHeight;
+        private long usedArea;
+
+        public Guillotine() {
+            freeX = new int[64];
+            freeY = new int[64];
+            freeW = new int[64];
+            freeH = new int[64];
+        }
+
+        @Override
+        public void reset(int width, int height) {
+            pageWidth = width;
+            pageHeight = height;
+            usedArea = 0;
+            freeCount = 0;
+            add(0, 0, width, height);
+        }
+
+        public boolean isEmpty() {
+            return usedArea == 0;
+        }
+
+        @Override
+        public boolean insert(int width, int height, boolean rotatable, int[] placement) {
+            int best = -1;
+            long bestArea = Long.MAX_VALUE;
+            boolean bestRotated = false;
+            for (int i = 0; i < freeCount; i++) {
+                int fw = freeW[i];
+                int fh = freeH[i];
+                long area = (long) fw * fh;
+                if (area >= bestArea)
+                    continue;
+                if (fw >= width && fh >= height) {
+                    best = i;
+                    bestArea = area;
+                    bestRotated = false;
+                } else if (rotatable && fw >= height && fh >= width) {
+                    best = i;
+                    bestArea = area;
+                    bestRotated = true;
+                }
+            }
+            if (best < 0)
+                return false;
+            int x = freeX[best];
+            int y = freeY[best];
+            int fw = freeW[best];
+            int fh = freeH[best];
+            int w = bestRotated ? height : width;
+            int h = bestRotated ? width : height;
+            remove(best);
+            if (fw - w < fh - h) {
+                add(x, y + h, fw, fh - h);
+                add(x + w, y, fw - w, h);
+            } else {
+                add(x + w, y, fw - w, fh);
+                add(x, y + h, w, fh - h);
+            }
+            placement[0] = x;
+            placement[1] = y;
+            placement[2] = bestRotated ? 1 : 0;
+            usedArea += (long) width * height;
+            return true;
+        }
+
+        public void free(int x, int y, int width, int height) {
+            usedArea -= (long) width * height;
+            if (usedArea <= 0) {
+                reset(pageWidth, pageHeight);
+                return;
+            }
+            add(x, y, width, height);
+            boolean merged = true;
+            while (merged) {
+                merged = false;
+                for (int i = 0; i < freeCount && !merged; i++)
+                    for (int j = i + 1; j < freeCount && !merged; j++)
+                        merged = merge(i, j) || merge(j, i);
+            }
+        }
+
+        private boolean merge(int first, int second) {
+            if (freeX[first] == freeX[second] && freeW[first] == freeW[second] && freeY[first] + freeH[first] == freeY[second])
+                freeH[first] += freeH[second];
+            else if (freeY[first] == freeY[second] && freeH[first] == freeH[second] && freeX[first] + freeW[first] == freeX[second])
+                freeW[first] += freeW[second];
+            else
+                return false;
+            remove(second);
+            return true;
+        }
+
+        private void add(int x, int y, int w, int h) {
+            if (w <= 0 || h <= 0)
+                return;
+            if (freeCount == freeX.length) {
+                int capacity = freeCount * 2;
+                freeX = MaxRects.grow(freeX, capacity);
+                freeY = MaxRects.grow(freeY, capacity);
+                freeW = MaxRects.grow(freeW, capacity);
+                freeH = MaxRects.grow(freeH, capacity);
+            }
+            freeX[freeCount] = x;
+            freeY[freeCount] = y;
+            freeW[freeCount] = w;
+            freeH[freeCount] = h;
+            freeCount++;
+        }
+
+        private void remove(int index) {
+            freeCount--;
+            freeX[index] = freeX[freeCount];
+            freeY[index] = freeY[freeCount];
+            freeW[index] = freeW[freeCount];
+            freeH[index] = freeH[freeCount];
+        }
+
+    }
+
+}
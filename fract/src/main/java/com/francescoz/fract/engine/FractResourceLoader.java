@@ -0,0 +1,245 @@
+package com.francescoz.fract.engine;
+
+import android.os.Process;
+import android.util.Log;
+
+import com.francescoz.fract.utils.FractPixel;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+final class FractResourceLoader {
+
+    private static final float CPU_SHARE = 0.5f;
+
+    private final FractGL gl;
+    private final boolean halfBits;
+    private final long contentVersion;
+    private final long retainBudget;
+    private final long textureBudget;
+    private final ExecutorService executor;
+    private final FractCacheWriter cacheWriter;
+    private Job job;
+    private FractResources.Uploader uploader;
+    private int jobCount;
+    private FractResources.PackedResourceDef retained;
+    private Source retainedSource;
+    private int retainedMaxTextureSize;
+    private FractResources.PackedResourceDef unmapped;
+    private FractResources unmappedResources;
+
+    FractResourceLoader(FractGL gl, File diskCache, int diskCacheEntries, long contentVersion, long retainBudget, long textureBudget, boolean halfBits) {
+        this.gl = gl;
+        this.contentVersion = contentVersion;
+        this.retainBudget = retainBudget;
+        this.textureBudget = textureBudget;
+        this.halfBits = halfBits;
+        cacheWriter = diskCache == null ? null : new FractCacheWriter(diskCache, diskCacheEntries);
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "FractResourceLoader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    void start(Source source, FractPixel resolution, int maxTextureSize) {
+        cancel();
+        job = new Job(++jobCount, source, resolution, maxTextureSize);
+        FractTrace.beginAsync(FractTrace.RELOAD_RESOURCES, job.cookie);
+        if (retained != null && retainedSource == source && retainedMaxTextureSize == maxTextureSize && retained.isValidFor(resolution)) {
+            Log.d("FractResourceLoader", "Reuploading retained resources");
+            job.progress = 1;
+            job.result = retained;
+        } else {
+            retained = null;
+            if (cacheWriter != null)
+                cacheWriter.abandon();
+            executor.execute(job);
+        }
+    }
+
+    void cancel() {
+        if (job == null)
+            return;
+        job.cancelled = true;
+        if (uploader != null)
+            uploader.cancel();
+        FractTrace.endAsync(FractTrace.RELOAD_RESOURCES, job.cookie);
+        job = null;
+        uploader = null;
+    }
+
+    void releaseRetained() {
+        retained = null;
+    }
+
+    void onContextLost() {
+        uploader = null;
+        unmapped = null;
+        unmappedResources = null;
+    }
+
+    void adoptWrittenCache() {
+        if (unmapped == null)
+            return;
+        FractResources.PackedResourceDef mapped = cacheWriter.takeMapped(unmapped);
+        if (mapped == null)
+            return;
+        unmappedResources.adopt(mapped);
+        retained = mapped;
+        unmapped = null;
+        unmappedResources = null;
+    }
+
+    boolean isLoading() {
+        return job != null;
+    }
+
+    float getProgress() {
+        if (job == null)
+            return 1;
+        if (uploader == null)
+            return job.progress * CPU_SHARE;
+        return CPU_SHARE + uploader.getProgress() * (1 - CPU_SHARE);
+    }
+
+    FractResources poll(long deadline) {
+        if (job == null)
+            return null;
+        if (job.failure != null) {
+            RuntimeException failure = job.failure;
+            cancel();
+            throw failure;
+        }
+        if (job.empty) {
+            FractTrace.endAsync(FractTrace.RELOAD_RESOURCES, job.cookie);
+            job = null;
+            return null;
+        }
+        FractResources.PackedResourceDef result = job.result;
+        if (result == null)
+            return null;
+        if (uploader == null)
+            uploader = new FractResources.Uploader(gl, result, textureBudget);
+        if (!uploader.upload(deadline))
+            return null;
+        FractResources resources = uploader.getResources();
+        Log.d("FractResourceLoader", "Texture memory " + resources.textureMemory / 1024 + "KB, saved " + resources.textureMemorySaved / 1024 + "KB by non-power-of-two pages");
+        retained = result.isRetainable(retainBudget) ? result : null;
+        retainedSource = job.source;
+        retainedMaxTextureSize = job.maxTextureSize;
+        boolean mapped = cacheWriter == null || result.isRetainable(0);
+        unmapped = mapped ? null : result;
+        unmappedResources = mapped ? null : resources;
+        FractTrace.endAsync(FractTrace.RELOAD_RESOURCES, job.cookie);
+        job = null;
+        uploader = null;
+        return resources;
+    }
+
+    interface Source {
+
+        FractResourcesDef createResources(FractPixel resolution);
+
+        boolean accepts(FractResources.PackedResourceDef packedResourceDef);
+
+    }
+
+    private final class Job implements Runnable {
+
+        private final int cookie;
+        private final Source source;
+        private final FractPixel resolution;
+        private final int maxTextureSize;
+        private volatile boolean cancelled;
+        private volatile boolean empty;
+        private volatile float progress;
+        private volatile FractResources.PackedResourceDef result;
+        private volatile RuntimeException failure;
+
+        private Job(int cookie, Source source, FractPixel resolution, int maxTextureSize) {
+            this.cookie = cookie;
+            this.source = source;
+            this.resolution = resolution;
+            this.maxTextureSize = maxTextureSize;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled)
+                return;
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            long start = System.nanoTime();
+            try {
+                FractResources.PackedResourceDef packedResourceDef = load();
+                if (!cancelled) {
+                    progress = 1;
+                    result = packedResourceDef;
+                    Log.d("FractResourceLoader", "Resources prepared in " + (System.nanoTime() - start) / 1000000 + "ms");
+                }
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+
+        private FractResources.PackedResourceDef load() {
+            FractResources.PackedResourceDef cached = null;
+            if (cacheWriter != null) {
+                FractTrace.begin(FractTrace.LOAD_RESOURCES);
+                try {
+                    File entry = cacheWriter.getEntry(resolution);
+                    cached = load(entry);
+                    if (cached == null)
+                        for (File fallback : cacheWriter.getEntries())
+                            if (!fallback.equals(entry) && (cached = load(fallback)) != null)
+                                break;
+                } finally {
+                    FractTrace.end();
+                }
+                if (cached != null && cached.contentVersion == contentVersion && cached.isValidFor(resolution)) {
+                    Log.d("FractResourceLoader", "Resources successfully loaded from file");
+                    return cached;
+                }
+            }
+            progress = 0.1f;
+            FractResourcesDef resourcesDef = source.createResources(resolution);
+            if (cancelled)
+                return null;
+            if (resourcesDef == null) {
+                empty = true;
+                return null;
+            }
+            progress = 0.2f;
+            FractResources.PackedResourceDef packedResourceDef;
+            FractTrace.begin(FractTrace.CREATE_RESOURCES);
+            try {
+                packedResourceDef = cached == null
+                        ? FractResources.create(resourcesDef, resolution, maxTextureSize, halfBits)
+                        : FractResources.update(cached, resourcesDef, resolution, maxTextureSize, halfBits);
+            } finally {
+                FractTrace.end();
+            }
+            if (packedResourceDef == cached)
+                Log.d("FractResourceLoader", "Resources successfully validated against content version " + contentVersion);
+            packedResourceDef.contentVersion = contentVersion;
+            if (cacheWriter != null && !cancelled)
+                cacheWriter.write(packedResourceDef, maxTextureSize);
+            return packedResourceDef;
+        }
+
+        private FractResources.PackedResourceDef load(File entry) {
+            FractResources.PackedResourceDef packedResourceDef = FractResources.load(entry, maxTextureSize);
+            if (packedResourceDef == null || !source.accepts(packedResourceDef))
+                return null;
+            entry.setLastModified(System.currentTimeMillis());
+            return packedResourceDef;
+        }
+
+    }
+
+}
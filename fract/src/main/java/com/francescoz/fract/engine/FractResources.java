@@ -1,31 +1,29 @@
 package com.francescoz.fract.engine;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.opengl.GLES20;
-import android.opengl.GLUtils;
 import android.util.Log;
 
 import com.francescoz.fract.utils.FractCoder;
 import com.francescoz.fract.utils.FractPixel;
-import com.francescoz.fract.utils.FractVec;
 
-import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
+import java.util.HashSet;
 
 import javax.microedition.khronos.opengles.GL10;
 
@@ -37,30 +35,39 @@ class FractResources {
             return o1.key.compareTo(o2.key);
         }
     };
-    private static final String CODER_TAG = "fractresourcesv0.41";
+    private static final String CODER_TAG = "fractresourcesv0.46";
+    private static final int CACHE_MAGIC = 0x46524354;
+    private static final int CACHE_VERSION = 3;
+    private static final int CACHE_HEADER_SIZE = 32;
+    private static final int CACHE_PAGE_DESCRIPTOR_SIZE = 36;
+    private static final int CACHE_ALIGNMENT = 4096;
+    private static final String CACHE_CHARSET = "UTF-8";
+    private static final float[] QUAD = {0, 0, 1, 0, 0, 1, 1, 1};
+    private static final short[] QUAD_INDICES = {0, 1, 2, 2, 1, 3};
     final boolean recreateOnResolutionChange;
     final FractPixel packingResolution;
+    final long textureMemory;
+    final long textureMemorySaved;
+    private final FractGL gl;
     private final Texture[] textures;
     private final Drawable[] drawables;
     private final String[] keys;
+    private final long residencyBudget;
 
-    private FractResources(PackedResourceDef packedResourceDef) {
-        int textureCount = packedResourceDef.drawablePacks.length;
-        int[] textureIds = new int[textureCount];
-        GLES20.glGenTextures(textureCount, textureIds, 0);
-        textures = new Texture[textureCount];
+    private FractResources(FractGL gl, PackedResourceDef packedResourceDef, Texture[] textures, long residencyBudget) {
+        this.gl = gl;
+        this.textures = textures;
+        this.residencyBudget = residencyBudget;
         drawables = new Drawable[packedResourceDef.drawableCount];
         int drawableIndex = 0;
-        for (int t = 0; t < textureCount; t++) {
+        long textureMemory = 0;
+        long textureMemorySaved = 0;
+        for (int t = 0; t < textures.length; t++) {
             FractDrawablePack pack = packedResourceDef.drawablePacks[t];
-            Bitmap bitmap = pack.bitmap;
-            Texture texture = new Texture(bitmap, packedResourceDef.filter, textureIds[t]);
-            textures[t] = texture;
-            int width = bitmap.getWidth();
-            int height = bitmap.getHeight();
-            FractDrawablePack.PackedDrawable[] packedDrawables = pack.packedDrawables;
-            for (FractDrawablePack.PackedDrawable packedDrawable : packedDrawables)
-                drawables[drawableIndex++] = new Drawable(texture, packedDrawable, width, height);
+            textureMemory += pack.getByteCount();
+            textureMemorySaved += pack.getPowerOfTwoByteCount() - pack.getByteCount();
+            for (FractDrawablePack.PackedDrawable packedDrawable : pack.packedDrawables)
+                drawables[drawableIndex++] = new Drawable(this, textures[t], packedDrawable, pack.width, pack.height);
         }
         int len = drawables.length;
         Arrays.sort(drawables, KEY_COMPARATOR);
@@ -69,76 +76,30 @@ class FractResources {
             keys[i] = drawables[i].key;
         this.recreateOnResolutionChange = packedResourceDef.recreateOnResolutionChange;
         packingResolution = packedResourceDef.resolution;
+        this.textureMemory = textureMemory;
+        this.textureMemorySaved = textureMemorySaved;
     }
 
-    private static int getMaxTextureSize() {
+    static int getMaxTextureSize(FractGL gl) {
         int[] maxTextureSize = new int[1];
-        GLES20.glGetIntegerv(GL10.GL_MAX_TEXTURE_SIZE, maxTextureSize, 0);
+        gl.glGetIntegerv(GL10.GL_MAX_TEXTURE_SIZE, maxTextureSize, 0);
         return maxTextureSize[0];
     }
 
-    static FractResources load(File file, FractPixel resolution) {
+    static PackedResourceDef load(File file, int maxTextureSize) {
         try {
             if (file.isFile() && file.canRead()) {
-                FileInputStream fileInputStream = new FileInputStream(file);
-                ZipInputStream zipIn = new ZipInputStream(fileInputStream);
-                ZipEntry zipEntry;
-                Map<String, File> fileMap = new HashMap<>();
-                while ((zipEntry = zipIn.getNextEntry()) != null) {
-                    if (!zipEntry.isDirectory()) {
-                        File tmp = File.createTempFile("extracted", ".res");
-                        tmp.createNewFile();
-                        fileMap.put(zipEntry.getName(), tmp);
-                        BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(tmp));
-                        byte[] bytesIn = new byte[4096];
-                        int read;
-                        while ((read = zipIn.read(bytesIn)) != -1) {
-                            bos.write(bytesIn, 0, read);
-                        }
-                        bos.close();
-                    }
-                    zipIn.closeEntry();
+                long start = System.nanoTime();
+                RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+                PackedResourceDef packedResourceDef;
+                try {
+                    packedResourceDef = load(randomAccessFile.getChannel(), maxTextureSize);
+                } finally {
+                    randomAccessFile.close();
                 }
-                zipIn.close();
-                fileInputStream.close();
-                FractCoder coder = new FractCoder();
-                coder.parseAndMerge(fileMap.get("res.txt"));
-                FractCoder.Node root = coder.getNodeRoot();
-                if (root.stringData.get("coderTag").equals(CODER_TAG)) {
-                    int maxTextureSize = getMaxTextureSize();
-                    int maxTextureCacheSize = root.integerData.get("maxTextureSize");
-                    FractResourcesDef.Filter filter = root.getEncodable("filter", FractResourcesDef.Filter.DECODER);
-                    boolean recreateOnResolutionChange = root.booleanData.get("recreateOnResChange");
-                    FractPixel cacheResolution = root.getEncodable("createdOnRes", FractPixel.DECODER);
-                    if (!recreateOnResolutionChange || cacheResolution.equals(resolution)) {
-                        FractCoder.Node packsNode = root.nodeData.get("packs");
-                        Set<Map.Entry<String, FractCoder.Node>> packNodeSet = packsNode.nodeData.getEntrySet();
-                        FractDrawablePack packs[] = new FractDrawablePack[packNodeSet.size()];
-                        if (maxTextureCacheSize < maxTextureSize) {
-                            if (packs.length > 1)
-                                return null;
-                        } else if (maxTextureCacheSize > maxTextureSize) {
-                            for (FractDrawablePack pack : packs) {
-                                Bitmap bitmap = pack.bitmap;
-                                if (bitmap.getWidth() > maxTextureSize || bitmap.getHeight() > maxTextureSize)
-                                    return null;
-                            }
-                        }
-                        int packIndex = 0;
-                        for (Map.Entry<String, FractCoder.Node> entry : packNodeSet) {
-                            File bitmapFile = fileMap.get(entry.getKey());
-                            Bitmap bitmap = BitmapFactory.decodeFile(bitmapFile.getAbsolutePath());
-                            Collection<FractCoder.Node> drawableNodeSet = entry.getValue().nodeData.getValuesSet();
-                            FractDrawablePack.PackedDrawable[] packedDrawables = new FractDrawablePack.PackedDrawable[drawableNodeSet.size()];
-                            int drawableIndex = 0;
-                            for (FractCoder.Node drawableNode : drawableNodeSet) {
-                                FractDrawablePack.PackedDrawable drawable = FractDrawablePack.PackedDrawable.DECODER.decode(drawableNode);
-                                packedDrawables[drawableIndex++] = drawable;
-                            }
-                            packs[packIndex++] = new FractDrawablePack(packedDrawables, bitmap);
-                        }
-                        return new FractResources(new PackedResourceDef(packs, cacheResolution, filter, recreateOnResolutionChange));
-                    }
+                if (packedResourceDef != null) {
+                    Log.d("FractResources", "Cache loaded in " + (System.nanoTime() - start) / 1000000 + "ms");
+                    return packedResourceDef;
                 }
             }
         } catch (Exception e) {
@@ -149,55 +110,302 @@ class FractResources {
         return null;
     }
 
-    static FractResources createAndSave(FractResourcesDef resourcesDef, FractPixel resolution, boolean halfBits, File file) throws IOException {
-        int maxTextureSize = getMaxTextureSize();
-        PackedResourceDef packedResourceDef = new PackedResourceDef(resourcesDef, resolution, maxTextureSize, halfBits);
-        FractResources resources = new FractResources(packedResourceDef);
-        file.createNewFile();
+    private static PackedResourceDef load(FileChannel channel, int maxTextureSize) throws IOException {
+        long fileSize = channel.size();
+        ByteBuffer header = read(channel, 0, CACHE_HEADER_SIZE, fileSize);
+        if (header.getInt() != CACHE_MAGIC || header.getInt() != CACHE_VERSION)
+            return null;
+        int pageCount = header.getInt();
+        int metadataSize = header.getInt();
+        long settingsFingerprint = header.getLong();
+        long contentVersion = header.getLong();
+        if (pageCount < 0 || metadataSize < 0)
+            throw new IOException("Bad cache header");
+        ByteBuffer descriptors = read(channel, CACHE_HEADER_SIZE, (long) pageCount * CACHE_PAGE_DESCRIPTOR_SIZE, fileSize);
+        ByteBuffer metadata = read(channel, CACHE_HEADER_SIZE + (long) pageCount * CACHE_PAGE_DESCRIPTOR_SIZE, metadataSize, fileSize);
+        FractCoder coder = new FractCoder();
+        BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(metadata.array()), CACHE_CHARSET));
+        coder.parseAndMerge(bufferedReader);
+        bufferedReader.close();
+        FractCoder.Node root = coder.getNodeRoot();
+        if (!CODER_TAG.equals(root.stringData.get("coderTag")))
+            return null;
+        int maxTextureCacheSize = root.integerData.get("maxTextureSize");
+        FractResourcesDef.Filter filter = root.getEncodable("filter", FractResourcesDef.Filter.DECODER);
+        boolean recreateOnResolutionChange = root.booleanData.get("recreateOnResChange");
+        FractPixel cacheResolution = root.getEncodable("createdOnRes", FractPixel.DECODER);
+        if (maxTextureCacheSize < maxTextureSize && pageCount > 1)
+            return null;
+        FractCoder.Node packsNode = root.nodeData.get("packs");
+        FractDrawablePack packs[] = new FractDrawablePack[pageCount];
+        long[] fingerprints = new long[pageCount];
+        FractDrawablePack.Format[] formats = FractDrawablePack.Format.values();
+        for (int p = 0; p < pageCount; p++) {
+            int formatIndex = descriptors.getInt();
+            int width = descriptors.getInt();
+            int height = descriptors.getInt();
+            long dataOffset = descriptors.getLong();
+            long alphaDataOffset = descriptors.getLong();
+            fingerprints[p] = descriptors.getLong();
+            if (formatIndex < 0 || formatIndex >= formats.length || width <= 0 || height <= 0)
+                throw new IOException("Bad cache page descriptor");
+            if (maxTextureCacheSize > maxTextureSize && (width > maxTextureSize || height > maxTextureSize))
+                return null;
+            FractDrawablePack.Format format = formats[formatIndex];
+            int dataSize = format.getDataSize(width, height);
+            ByteBuffer data = map(channel, dataOffset, dataSize, fileSize);
+            ByteBuffer alphaData = alphaDataOffset == 0 ? null : map(channel, alphaDataOffset, dataSize, fileSize);
+            Collection<FractCoder.Node> drawableNodeSet = packsNode.nodeData.get("p" + p).nodeData.getValuesSet();
+            FractDrawablePack.PackedDrawable[] packedDrawables = new FractDrawablePack.PackedDrawable[drawableNodeSet.size()];
+            int drawableIndex = 0;
+            for (FractCoder.Node drawableNode : drawableNodeSet)
+                packedDrawables[drawableIndex++] = FractDrawablePack.PackedDrawable.DECODER.decode(drawableNode);
+            packs[p] = new FractDrawablePack(packedDrawables, width, height, format, data, alphaData);
+        }
+        PackedResourceDef packedResourceDef = new PackedResourceDef(packs, fingerprints, settingsFingerprint, cacheResolution, filter, recreateOnResolutionChange);
+        packedResourceDef.contentVersion = contentVersion;
+        return packedResourceDef;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, long size, long fileSize) throws IOException {
+        if (position + size > fileSize)
+            throw new IOException("Truncated cache");
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining())
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Truncated cache");
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, int size, long fileSize) throws IOException {
+        if (position <= 0 || position % CACHE_ALIGNMENT != 0 || position + size > fileSize)
+            throw new IOException("Bad cache page offset");
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    static void save(PackedResourceDef packedResourceDef, int maxTextureSize, File file) throws IOException {
+        FractTrace.begin(FractTrace.WRITE_CACHE);
+        try {
+            writeCache(packedResourceDef, maxTextureSize, file);
+        } finally {
+            FractTrace.end();
+        }
+    }
+
+    private static void writeCache(PackedResourceDef packedResourceDef, int maxTextureSize, File file) throws IOException {
+        FractDrawablePack[] packs = packedResourceDef.drawablePacks;
         FractCoder.Node packsNode = new FractCoder.Node();
-        FileOutputStream fileOutputStream = new FileOutputStream(file);
-        ZipOutputStream zipOutputStream = new ZipOutputStream(fileOutputStream);
-        int packIndex = 0;
-        for (FractDrawablePack pack : packedResourceDef.drawablePacks) {
-            String name = "tex" + packIndex++ + ".png";
-            zipOutputStream.putNextEntry(new ZipEntry(name));
-            pack.bitmap.compress(Bitmap.CompressFormat.PNG, 100, zipOutputStream);
-            zipOutputStream.closeEntry();
+        for (int p = 0; p < packs.length; p++) {
             FractCoder.Node packNode = new FractCoder.Node();
             int drawableIndex = 0;
-            for (FractDrawablePack.PackedDrawable packedDrawable : pack.packedDrawables)
+            for (FractDrawablePack.PackedDrawable packedDrawable : packs[p].packedDrawables)
                 packNode.putEncodable("drw" + drawableIndex++, packedDrawable);
-            packsNode.nodeData.put(name, packNode);
+            packsNode.nodeData.put("p" + p, packNode);
         }
         FractCoder coder = new FractCoder();
         FractCoder.Node rootNode = coder.getNodeRoot();
         rootNode.stringData.put("coderTag", CODER_TAG);
-        rootNode.putEncodable("createdOnRes", resolution);
-        rootNode.booleanData.put("recreateOnResChange", resourcesDef.recreateOnResolutionChange);
+        rootNode.putEncodable("createdOnRes", packedResourceDef.resolution);
+        rootNode.booleanData.put("recreateOnResChange", packedResourceDef.recreateOnResolutionChange);
         rootNode.integerData.put("maxTextureSize", maxTextureSize);
         rootNode.putEncodable("filter", packedResourceDef.filter);
         rootNode.nodeData.put("packs", packsNode);
-        zipOutputStream.putNextEntry(new ZipEntry("res.txt"));
-        BufferedWriter bufferedWriter = new BufferedWriter(new PrintWriter(zipOutputStream));
+        ByteArrayOutputStream metadataStream = new ByteArrayOutputStream();
+        BufferedWriter bufferedWriter = new BufferedWriter(new OutputStreamWriter(metadataStream, CACHE_CHARSET));
         coder.write(bufferedWriter);
-        bufferedWriter.flush();
-        zipOutputStream.closeEntry();
-        zipOutputStream.close();
-        fileOutputStream.close();
-        return resources;
+        bufferedWriter.close();
+        byte[] metadata = metadataStream.toByteArray();
+        ByteBuffer header = ByteBuffer.allocate(CACHE_HEADER_SIZE + packs.length * CACHE_PAGE_DESCRIPTOR_SIZE);
+        header.putInt(CACHE_MAGIC).putInt(CACHE_VERSION).putInt(packs.length).putInt(metadata.length).putLong(packedResourceDef.settingsFingerprint).putLong(packedResourceDef.contentVersion);
+        ByteBuffer[] data = new ByteBuffer[packs.length];
+        ByteBuffer[] alphaData = new ByteBuffer[packs.length];
+        long position = align(header.capacity() + metadata.length);
+        for (int p = 0; p < packs.length; p++) {
+            FractDrawablePack pack = packs[p];
+            data[p] = pack.getData();
+            alphaData[p] = pack.alphaData == null ? null : pack.alphaData.duplicate();
+            header.putInt(pack.format.ordinal()).putInt(pack.width).putInt(pack.height);
+            header.putLong(position);
+            position = align(position + data[p].remaining());
+            if (alphaData[p] != null) {
+                header.putLong(position);
+                position = align(position + alphaData[p].remaining());
+            } else
+                header.putLong(0);
+            header.putLong(packedResourceDef.fingerprints[p]);
+        }
+        header.flip();
+        FileOutputStream fileOutputStream = new FileOutputStream(file);
+        try {
+            FileChannel channel = fileOutputStream.getChannel();
+            write(channel, header, 0);
+            write(channel, ByteBuffer.wrap(metadata), header.capacity());
+            header.position(CACHE_HEADER_SIZE);
+            for (int p = 0; p < packs.length; p++) {
+                header.position(header.position() + 12);
+                write(channel, data[p], header.getLong());
+                long alphaDataOffset = header.getLong();
+                header.getLong();
+                if (alphaData[p] != null)
+                    write(channel, alphaData[p], alphaDataOffset);
+            }
+        } finally {
+            fileOutputStream.close();
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+
+    private static long align(long position) {
+        return (position + CACHE_ALIGNMENT - 1) / CACHE_ALIGNMENT * CACHE_ALIGNMENT;
+    }
+
+    static PackedResourceDef create(FractResourcesDef resourcesDef, FractPixel resolution, int maxTextureSize, boolean halfBits) {
+        return create(resourcesDef, new FractDrawablePack[0], resourcesDef.getDrawables(), getFingerprints(resourcesDef.getDrawables()), resolution, maxTextureSize, halfBits);
+    }
+
+    static PackedResourceDef update(PackedResourceDef cached, FractResourcesDef resourcesDef, FractPixel resolution, int maxTextureSize, boolean halfBits) {
+        if (cached.settingsFingerprint != resourcesDef.getSettingsFingerprint(halfBits))
+            return create(resourcesDef, resolution, maxTextureSize, halfBits);
+        FractResourcesDef.Drawable[] drawableDefs = resourcesDef.getDrawables();
+        HashMap<String, Long> fingerprints = getFingerprints(drawableDefs);
+        ArrayList<FractDrawablePack> reused = new ArrayList<>();
+        HashSet<String> packed = new HashSet<>();
+        for (int p = 0; p < cached.drawablePacks.length; p++) {
+            FractDrawablePack pack = cached.drawablePacks[p];
+            long fingerprint = getFingerprint(pack, fingerprints);
+            if (fingerprint == FractResourcesDef.Drawable.UNKNOWN_FINGERPRINT || fingerprint != cached.fingerprints[p])
+                continue;
+            reused.add(pack);
+            for (FractDrawablePack.PackedDrawable packedDrawable : pack.packedDrawables)
+                packed.add(packedDrawable.key);
+        }
+        if (reused.size() == cached.drawablePacks.length && packed.size() == drawableDefs.length && cached.isValidFor(resolution))
+            return cached;
+        ArrayList<FractResourcesDef.Drawable> changed = new ArrayList<>();
+        for (FractResourcesDef.Drawable drawableDef : drawableDefs)
+            if (!packed.contains(drawableDef.key))
+                changed.add(drawableDef);
+        Log.d("FractResources", "Reusing " + reused.size() + " of " + cached.drawablePacks.length + " cached pages, packing " + changed.size() + " changed drawables");
+        FractDrawablePack[] reusedPacks = new FractDrawablePack[reused.size()];
+        FractResourcesDef.Drawable[] changedDefs = new FractResourcesDef.Drawable[changed.size()];
+        return create(resourcesDef, reused.toArray(reusedPacks), changed.toArray(changedDefs), fingerprints, resolution, maxTextureSize, halfBits);
+    }
+
+    private static PackedResourceDef create(FractResourcesDef resourcesDef, FractDrawablePack[] reusedPacks, FractResourcesDef.Drawable[] drawableDefs, HashMap<String, Long> fingerprints, FractPixel resolution, int maxTextureSize, boolean halfBits) {
+        FractDrawablePack[] packs = reusedPacks;
+        if (drawableDefs.length > 0) {
+            if (resourcesDef.usageProfile != null)
+                drawableDefs = resourcesDef.usageProfile.arrange(drawableDefs);
+            FractDrawablePack[] newPacks = FractDrawablePack.splitAndPack(drawableDefs, resourcesDef, maxTextureSize, 4, halfBits);
+            packs = Arrays.copyOf(reusedPacks, reusedPacks.length + newPacks.length);
+            System.arraycopy(newPacks, 0, packs, reusedPacks.length, newPacks.length);
+        }
+        long[] packFingerprints = new long[packs.length];
+        for (int p = 0; p < packs.length; p++)
+            packFingerprints[p] = getFingerprint(packs[p], fingerprints);
+        return new PackedResourceDef(packs, packFingerprints, resourcesDef.getSettingsFingerprint(halfBits), resolution, resourcesDef.filter, resourcesDef.recreateOnResolutionChange);
+    }
+
+    private static HashMap<String, Long> getFingerprints(FractResourcesDef.Drawable[] drawableDefs) {
+        HashMap<String, Long> fingerprints = new HashMap<>(drawableDefs.length * 2);
+        for (FractResourcesDef.Drawable drawableDef : drawableDefs)
+            fingerprints.put(drawableDef.key, drawableDef.getFingerprint());
+        return fingerprints;
+    }
+
+    private static long getFingerprint(FractDrawablePack pack, HashMap<String, Long> fingerprints) {
+        long fingerprint = pack.packedDrawables.length;
+        for (FractDrawablePack.PackedDrawable packedDrawable : pack.packedDrawables) {
+            Long drawableFingerprint = fingerprints.get(packedDrawable.key);
+            if (drawableFingerprint == null || drawableFingerprint == FractResourcesDef.Drawable.UNKNOWN_FINGERPRINT)
+                return FractResourcesDef.Drawable.UNKNOWN_FINGERPRINT;
+            fingerprint += FractResourcesDef.Drawable.fingerprint(packedDrawable.key.hashCode(), drawableFingerprint);
+        }
+        return fingerprint;
     }
 
-    static FractResources create(FractResourcesDef resourcesDef, FractPixel resolution, boolean halfBits) {
-        return new FractResources(new PackedResourceDef(resourcesDef, resolution, getMaxTextureSize(), halfBits));
+    static FractResources create(FractGL gl, PackedResourceDef packedResourceDef) {
+        Uploader uploader = new Uploader(gl, packedResourceDef, 0);
+        uploader.upload(Long.MAX_VALUE);
+        return uploader.getResources();
     }
 
     void destroy() {
-        int textureCount = textures.length;
-        int[] ids = new int[textureCount];
+        deleteTextures(gl, textures, textures.length);
+    }
+
+    boolean updateResidency(long frame, long deadline) {
+        boolean changed = false;
+        for (Texture texture : textures) {
+            if (!texture.requested || changed && System.nanoTime() >= deadline)
+                continue;
+            texture.requested = false;
+            texture.makeResident();
+            changed = true;
+        }
+        if (residencyBudget > 0 && evict(frame - 1, residencyBudget) > 0)
+            changed = true;
+        return changed;
+    }
+
+    void adopt(PackedResourceDef mapped) {
+        FractDrawablePack[] packs = mapped.drawablePacks;
+        if (residencyBudget <= 0 || packs.length != textures.length)
+            return;
+        int adopted = 0;
+        for (int t = 0; t < textures.length; t++)
+            if (textures[t].adopt(packs[t]))
+                adopted++;
+        Log.d("FractResources", "Adopted " + adopted + " mapped pages from the disk cache");
+    }
+
+    boolean trimResidency(long frame) {
+        int evicted = evict(frame - 1, 0);
+        if (evicted > 0)
+            Log.d("FractResources", "Trimmed " + evicted + " idle pages");
+        return evicted > 0;
+    }
+
+    private int evict(long inUseFrame, long budget) {
+        long residentBytes = 0;
+        for (Texture texture : textures)
+            if (texture.isResident())
+                residentBytes += texture.byteCount;
+        int evicted = 0;
+        while (residentBytes > budget) {
+            Texture leastRecentlyUsed = null;
+            for (Texture texture : textures)
+                if (texture.isEvictable() && texture.lastUsedFrame < inUseFrame && (leastRecentlyUsed == null || texture.lastUsedFrame < leastRecentlyUsed.lastUsedFrame))
+                    leastRecentlyUsed = texture;
+            if (leastRecentlyUsed == null)
+                break;
+            residentBytes -= leastRecentlyUsed.byteCount;
+            leastRecentlyUsed.evict();
+            evicted++;
+        }
+        return evicted;
+    }
+
+    private static void deleteTextures(FractGL gl, Texture[] textures, int textureCount) {
+        int[] ids = new int[textureCount * 2];
+        int idCount = 0;
         for (int i = 0; i < textureCount; i++) {
-            ids[i] = textures[i].textureID;
+            if (!textures[i].isResident())
+                continue;
+            ids[idCount++] = textures[i].textureID;
+            if (textures[i].alphaTextureID != 0)
+                ids[idCount++] = textures[i].alphaTextureID;
         }
-        GLES20.glDeleteTextures(textureCount, ids, 0);
+        gl.glDeleteTextures(idCount, ids, 0);
+    }
+
+    boolean hasDrawable(String drawableKey) {
+        return Arrays.binarySearch(keys, drawableKey) >= 0;
     }
 
     Drawable getDrawable(String drawableKey) {
@@ -207,27 +415,21 @@ class FractResources {
         return drawables[index];
     }
 
-    private static final class PackedResourceDef {
+    static final class PackedResourceDef {
 
-        private final FractDrawablePack[] drawablePacks;
-        private final FractResourcesDef.Filter filter;
-        private final int drawableCount;
-        private final FractPixel resolution;
-        private final boolean recreateOnResolutionChange;
-
-        private PackedResourceDef(FractResourcesDef resourcesDef, FractPixel resolution, int maxTextureSize, boolean halfBits) {
-            drawablePacks = FractDrawablePack.splitAndPack(resourcesDef.getDrawables(), maxTextureSize, 4, halfBits);
-            filter = resourcesDef.filter;
-            int drawableCount = 0;
-            for (FractDrawablePack pack : drawablePacks)
-                drawableCount += pack.packedDrawables.length;
-            this.drawableCount = drawableCount;
-            this.recreateOnResolutionChange = resourcesDef.recreateOnResolutionChange;
-            this.resolution = resolution;
-        }
+        final FractDrawablePack[] drawablePacks;
+        final long[] fingerprints;
+        final long settingsFingerprint;
+        final FractResourcesDef.Filter filter;
+        final int drawableCount;
+        final FractPixel resolution;
+        final boolean recreateOnResolutionChange;
+        long contentVersion;
 
-        private PackedResourceDef(FractDrawablePack[] drawablePacks, FractPixel resolution, FractResourcesDef.Filter filter, boolean recreateOnResolutionChange) {
+        PackedResourceDef(FractDrawablePack[] drawablePacks, long[] fingerprints, long settingsFingerprint, FractPixel resolution, FractResourcesDef.Filter filter, boolean recreateOnResolutionChange) {
             this.drawablePacks = drawablePacks;
+            this.fingerprints = fingerprints;
+            this.settingsFingerprint = settingsFingerprint;
             this.filter = filter;
             int drawableCount = 0;
             for (FractDrawablePack pack : drawablePacks)
@@ -236,84 +438,256 @@ class FractResources {
             this.recreateOnResolutionChange = recreateOnResolutionChange;
             this.resolution = resolution;
         }
+
+        boolean isRetainable(long budget) {
+            long heapByteCount = 0;
+            for (FractDrawablePack pack : drawablePacks) {
+                if (!pack.isRetainable())
+                    return false;
+                heapByteCount += pack.getHeapByteCount();
+            }
+            return heapByteCount <= budget;
+        }
+
+        boolean isValidFor(FractPixel resolution) {
+            return !recreateOnResolutionChange || this.resolution.equals(resolution);
+        }
+
+        boolean hasDrawable(String drawableKey) {
+            for (FractDrawablePack pack : drawablePacks)
+                for (FractDrawablePack.PackedDrawable packedDrawable : pack.packedDrawables)
+                    if (packedDrawable.key.equals(drawableKey))
+                        return true;
+            return false;
+        }
+    }
+
+    static final class Uploader {
+
+        private final FractGL gl;
+        private final PackedResourceDef packedResourceDef;
+        private final Texture[] textures;
+        private final long residencyBudget;
+        private long residentBytes;
+        private int uploaded;
+
+        Uploader(FractGL gl, PackedResourceDef packedResourceDef, long residencyBudget) {
+            this.gl = gl;
+            this.packedResourceDef = packedResourceDef;
+            this.residencyBudget = residencyBudget;
+            textures = new Texture[packedResourceDef.drawablePacks.length];
+        }
+
+        boolean upload(long deadline) {
+            FractResourcesDef.Filter filter = packedResourceDef.filter;
+            while (uploaded < textures.length) {
+                FractDrawablePack pack = packedResourceDef.drawablePacks[uploaded];
+                boolean evictable = residencyBudget > 0 && pack.getHeapByteCount() == 0;
+                boolean resident = !evictable || residentBytes + pack.getByteCount() <= residencyBudget;
+                Texture texture = new Texture(gl, pack, filter, evictable, resident);
+                textures[uploaded++] = texture;
+                if (!texture.isResident())
+                    continue;
+                residentBytes += texture.byteCount;
+                if (System.nanoTime() >= deadline)
+                    break;
+            }
+            return uploaded == textures.length;
+        }
+
+        float getProgress() {
+            return textures.length == 0 ? 1 : uploaded / (float) textures.length;
+        }
+
+        FractResources getResources() {
+            if (uploaded < textures.length)
+                throw new IllegalStateException("Textures not uploaded yet");
+            return new FractResources(gl, packedResourceDef, textures, residencyBudget);
+        }
+
+        void cancel() {
+            deleteTextures(gl, textures, uploaded);
+        }
+
     }
 
 
     static class Texture {
 
         final float aspectRatio;
-        final int textureID;
+        final boolean alphaOnly;
+        final long byteCount;
+        private final FractGL gl;
+        private FractDrawablePack pack;
+        private final FractResourcesDef.Filter filter;
+        int textureID;
+        int alphaTextureID;
+        long lastUsedFrame;
+        boolean requested;
 
-        Texture(int width, int height, FractResourcesDef.Filter filter, int textureID, int format) {
+        Texture(FractGL gl, int width, int height, FractResourcesDef.Filter filter, int textureID, int format) {
+            this.gl = gl;
             this.textureID = textureID;
             if (textureID == 0)
                 throw new RuntimeException("Unable to generate textures");
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureID);
-            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0, format, GLES20.GL_UNSIGNED_BYTE, null);
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, filter.minFilter);
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, filter.magFilter);
+            gl.glBindTexture(GLES20.GL_TEXTURE_2D, textureID);
+            gl.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0, format, GLES20.GL_UNSIGNED_BYTE, null);
+            setParameters(gl, filter);
             aspectRatio = width / (float) height;
+            alphaOnly = format == GLES20.GL_ALPHA;
+            byteCount = (long) width * height * (alphaOnly ? 1 : 4);
+            pack = null;
+            this.filter = filter;
         }
 
-        private Texture(Bitmap bitmap, FractResourcesDef.Filter filter, int textureID) {
-            this.textureID = textureID;
-            if (textureID == 0)
-                throw new RuntimeException("Unable to generate textures");
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureID);
-            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, filter.minFilter);
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, filter.magFilter);
+        private Texture(FractGL gl, FractDrawablePack pack, FractResourcesDef.Filter filter, boolean evictable, boolean resident) {
+            this.gl = gl;
+            this.pack = evictable ? pack : null;
+            this.filter = filter;
+            aspectRatio = pack.width / (float) pack.height;
+            alphaOnly = pack.format == FractDrawablePack.Format.ALPHA;
+            byteCount = pack.getByteCount();
+            if (resident)
+                upload(pack);
+        }
+
+        boolean isResident() {
+            return textureID != 0;
+        }
+
+        boolean isEvictable() {
+            return pack != null && textureID != 0;
+        }
+
+        boolean adopt(FractDrawablePack mapped) {
+            if (pack != null || mapped.getHeapByteCount() != 0 || mapped.getByteCount() != byteCount || mapped.format == FractDrawablePack.Format.ALPHA != alphaOnly)
+                return false;
+            pack = mapped;
+            return true;
+        }
+
+        void makeResident() {
+            upload(pack);
+        }
+
+        void evict() {
+            int[] ids = {textureID, alphaTextureID};
+            gl.glDeleteTextures(alphaTextureID != 0 ? 2 : 1, ids, 0);
+            textureID = alphaTextureID = 0;
+        }
+
+        private void upload(FractDrawablePack pack) {
+            int[] ids = new int[pack.alphaData != null ? 2 : 1];
+            gl.glGenTextures(ids.length, ids, 0);
+            for (int id : ids)
+                if (id == 0)
+                    throw new RuntimeException("Unable to generate textures");
+            FractTrace.begin(FractTrace.TEXTURE_UPLOAD);
+            try {
+                gl.glBindTexture(GLES20.GL_TEXTURE_2D, ids[0]);
+                if (pack.bitmap != null)
+                    gl.texImage2D(GLES20.GL_TEXTURE_2D, 0, pack.format.glFormat, pack.bitmap, 0);
+                else
+                    upload(gl, pack, pack.data);
+                setParameters(gl, filter);
+                if (pack.alphaData != null) {
+                    gl.glBindTexture(GLES20.GL_TEXTURE_2D, ids[1]);
+                    upload(gl, pack, pack.alphaData);
+                    setParameters(gl, filter);
+                }
+            } finally {
+                FractTrace.end();
+            }
            /*if (filter.generateMipmaps)
-                GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);*/
-            aspectRatio = bitmap.getWidth() / (float) bitmap.getHeight();
+                gl.glGenerateMipmap(GLES20.GL_TEXTURE_2D);*/
+            textureID = ids[0];
+            alphaTextureID = pack.alphaData != null ? ids[1] : 0;
+        }
+
+        private static void upload(FractGL gl, FractDrawablePack pack, ByteBuffer data) {
+            FractDrawablePack.Format format = pack.format;
+            data = data.duplicate();
+            data.rewind();
+            if (format == FractDrawablePack.Format.ETC1) {
+                gl.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, 0, format.glFormat, pack.width, pack.height, 0, data.remaining(), data);
+                return;
+            }
+            boolean unaligned = pack.width * format.bytesPerPixel % 4 != 0;
+            if (unaligned)
+                gl.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+            gl.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format.glFormat, pack.width, pack.height, 0, format.glFormat, format.glType, data);
+            if (unaligned)
+                gl.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
+        }
+
+        private static void setParameters(FractGL gl, FractResourcesDef.Filter filter) {
+            gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, filter.minFilter);
+            gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, filter.magFilter);
+            gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+            gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
         }
 
         void bind(int textureUnit) {
-            GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + textureUnit);
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureID);
+            gl.glActiveTexture(GLES20.GL_TEXTURE0 + textureUnit);
+            gl.glBindTexture(GLES20.GL_TEXTURE_2D, textureID);
         }
 
     }
 
-    class Drawable {
+    static final class Drawable {
 
         final Texture texture;
         final float[] textureCoords;
+        final float[] vertices;
+        final short[] indices;
+        final boolean polygon;
         final String key;
         final boolean rotated;
+        final float aspectRatio;
+        private final FractResources owner;
 
-        private Drawable(Texture texture, FractDrawablePack.PackedDrawable packedDrawable, int width, int height) {
-            this(texture, packedDrawable.key, new FractVec(packedDrawable.topLeftVertex).div(width, height), new FractVec(packedDrawable.bottomRightVertex).div(width, height), packedDrawable.rotated);
+        Drawable(Texture texture, FractDrawablePack.PackedDrawable packedDrawable, int width, int height) {
+            this(null, texture, packedDrawable, width, height);
         }
 
-        private Drawable(Texture texture, String key, FractVec topLeftVertex, FractVec bottomRightVertex, boolean rotated) {
+        private Drawable(FractResources owner, Texture texture, FractDrawablePack.PackedDrawable packedDrawable, int width, int height) {
+            this.owner = owner;
             this.texture = texture;
-            this.key = key;
-            this.textureCoords = new float[8];
-            if (rotated) {
-                textureCoords[2] = topLeftVertex.x;
-                textureCoords[3] = topLeftVertex.y;
-                textureCoords[6] = bottomRightVertex.x;
-                textureCoords[7] = topLeftVertex.y;
-                textureCoords[0] = topLeftVertex.x;
-                textureCoords[1] = bottomRightVertex.y;
-                textureCoords[4] = bottomRightVertex.x;
-                textureCoords[5] = bottomRightVertex.y;
-            } else {
-                textureCoords[0] = topLeftVertex.x;
-                textureCoords[1] = topLeftVertex.y;
-                textureCoords[2] = bottomRightVertex.x;
-                textureCoords[3] = topLeftVertex.y;
-                textureCoords[4] = topLeftVertex.x;
-                textureCoords[5] = bottomRightVertex.y;
-                textureCoords[6] = bottomRightVertex.x;
-                textureCoords[7] = bottomRightVertex.y;
+            key = packedDrawable.key;
+            rotated = packedDrawable.rotated;
+            aspectRatio = packedDrawable.getAspectRatio();
+            polygon = packedDrawable.hull != null;
+            float[] shape = polygon ? packedDrawable.hull : QUAD;
+            indices = polygon ? FractHull.triangulate(shape.length / 2) : QUAD_INDICES;
+            vertices = new float[shape.length];
+            textureCoords = new float[shape.length];
+            float untrimmedWidth = packedDrawable.untrimmedSize.x;
+            float untrimmedHeight = packedDrawable.untrimmedSize.y;
+            float left = packedDrawable.trimOffset.x / untrimmedWidth - 0.5f;
+            float right = (packedDrawable.trimOffset.x + packedDrawable.getWidth()) / untrimmedWidth - 0.5f;
+            float top = 0.5f - packedDrawable.trimOffset.y / untrimmedHeight;
+            float bottom = 0.5f - (packedDrawable.trimOffset.y + packedDrawable.getHeight()) / untrimmedHeight;
+            float u0 = packedDrawable.topLeftVertex.x / (float) width;
+            float v0 = packedDrawable.topLeftVertex.y / (float) height;
+            float u1 = packedDrawable.bottomRightVertex.x / (float) width;
+            float v1 = packedDrawable.bottomRightVertex.y / (float) height;
+            for (int i = 0; i < shape.length; i += 2) {
+                float x = shape[i];
+                float y = shape[i + 1];
+                vertices[i] = left + x * (right - left);
+                vertices[i + 1] = top + y * (bottom - top);
+                if (rotated) {
+                    textureCoords[i] = u0 + y * (u1 - u0);
+                    textureCoords[i + 1] = v1 - x * (v1 - v0);
+                } else {
+                    textureCoords[i] = u0 + x * (u1 - u0);
+                    textureCoords[i + 1] = v0 + y * (v1 - v0);
+                }
             }
-            this.rotated = rotated;
         }
 
         FractResources getResources() {
-            return FractResources.this;
+            return owner;
         }
 
     }
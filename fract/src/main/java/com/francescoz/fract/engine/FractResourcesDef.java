@@ -14,12 +14,21 @@ import android.text.TextPaint;
 
 import com.francescoz.fract.utils.FractCoder;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.zip.CRC32;
 
 public class FractResourcesDef {
 
     private final ArrayList<Drawable> drawableDefs;
     public Filter filter;
+    public FractPacker.Factory packer;
+    public FractUsageProfile usageProfile;
+    public boolean trim;
+    public int hullVertices;
+    public boolean compactFormats;
+    public boolean groupByFormat;
+    public boolean etc1Compression;
     public boolean recreateOnResolutionChange;
 
     public FractResourcesDef(Drawable... drawableDefs) {
@@ -30,6 +39,24 @@ public class FractResourcesDef {
     public FractResourcesDef() {
         drawableDefs = new ArrayList<>();
         filter = Filter.DEFAULT;
+        packer = FractPacker.MaxRects.FACTORY;
+        trim = true;
+        compactFormats = true;
+    }
+
+    FractResourcesDef copy() {
+        FractResourcesDef copy = new FractResourcesDef();
+        copy.drawableDefs.addAll(drawableDefs);
+        copy.filter = filter;
+        copy.packer = packer;
+        copy.usageProfile = usageProfile;
+        copy.trim = trim;
+        copy.hullVertices = hullVertices;
+        copy.compactFormats = compactFormats;
+        copy.groupByFormat = groupByFormat;
+        copy.etc1Compression = etc1Compression;
+        copy.recreateOnResolutionChange = recreateOnResolutionChange;
+        return copy;
     }
 
     public void addDrawable(Drawable drawableDef) {
@@ -52,6 +79,20 @@ public class FractResourcesDef {
         return array;
     }
 
+    long getSettingsFingerprint(boolean halfBits) {
+        long fingerprint = Drawable.fingerprint(0, packer.getClass().getName());
+        fingerprint = Drawable.fingerprint(fingerprint, filter.minFilter);
+        fingerprint = Drawable.fingerprint(fingerprint, filter.magFilter);
+        fingerprint = Drawable.fingerprint(fingerprint, filter.generateMipmaps ? 1 : 0);
+        fingerprint = Drawable.fingerprint(fingerprint, trim ? 1 : 0);
+        fingerprint = Drawable.fingerprint(fingerprint, recreateOnResolutionChange ? 1 : 0);
+        fingerprint = Drawable.fingerprint(fingerprint, hullVertices);
+        fingerprint = Drawable.fingerprint(fingerprint, compactFormats ? 1 : 0);
+        fingerprint = Drawable.fingerprint(fingerprint, groupByFormat ? 1 : 0);
+        fingerprint = Drawable.fingerprint(fingerprint, etc1Compression ? 1 : 0);
+        return Drawable.fingerprint(fingerprint, halfBits ? 1 : 0);
+    }
+
     public static final class Filter implements FractCoder.Encodable {
         public static final Filter DEFAULT = new Filter(false, false);
         public static final FractCoder.Decoder<Filter> DECODER = new FractCoder.Decoder<Filter>() {
@@ -107,10 +148,13 @@ public class FractResourcesDef {
 
         private final StaticLayout layout;
         private final int width;
+        private final String text;
 
         public FontDrawable(String text, TextPaint paint) {
+            paint = new TextPaint(paint);
             layout = new StaticLayout(text, paint, Integer.MAX_VALUE, Layout.Alignment.ALIGN_NORMAL, 1.0f, 0.0f, false);
             width = (int) Math.ceil(paint.measureText(text));
+            this.text = text;
         }
 
         public FontDrawable(int priority, String key, String text, int size, Typeface typeface) {
@@ -150,6 +194,11 @@ public class FractResourcesDef {
             layout.draw(canvas);
         }
 
+        @Override
+        protected long getFingerprint() {
+            return fingerprint(fingerprint(getBaseFingerprint(), text), layout.getPaint());
+        }
+
         @Override
         public int getWidth() {
             return width;
@@ -176,6 +225,11 @@ public class FractResourcesDef {
             float c = width / 2.0f;
             canvas.drawCircle(c, c, c, paint);
         }
+
+        @Override
+        protected long getFingerprint() {
+            return fingerprint(getBaseFingerprint(), paint);
+        }
     }
 
     public static abstract class PaintDrawable extends Drawable {
@@ -225,6 +279,11 @@ public class FractResourcesDef {
             canvas.drawColor(Color.WHITE);
         }
 
+        @Override
+        protected long getFingerprint() {
+            return getBaseFingerprint();
+        }
+
         @Override
         public int getWidth() {
             return 2;
@@ -281,6 +340,15 @@ public class FractResourcesDef {
             canvas.drawBitmap(bitmap, 0, 0, null);
         }
 
+        @Override
+        protected long getFingerprint() {
+            ByteBuffer pixels = ByteBuffer.allocate(bitmap.getRowBytes() * bitmap.getHeight());
+            bitmap.copyPixelsToBuffer(pixels);
+            CRC32 crc = new CRC32();
+            crc.update(pixels.array());
+            return fingerprint(fingerprint(getBaseFingerprint(), bitmap.getConfig().ordinal()), crc.getValue());
+        }
+
         @Override
         public int getWidth() {
             return bitmap.getWidth();
@@ -294,6 +362,7 @@ public class FractResourcesDef {
 
     public static abstract class Drawable {
 
+        protected static final long UNKNOWN_FINGERPRINT = 0;
         public int priority;
         public String key;
 
@@ -311,5 +380,55 @@ public class FractResourcesDef {
 
         public abstract int getHeight();
 
+        protected boolean isThreadSafe() {
+            return true;
+        }
+
+        protected long getFingerprint() {
+            return UNKNOWN_FINGERPRINT;
+        }
+
+        protected final long getBaseFingerprint() {
+            return fingerprint(fingerprint(fingerprint(0, getClass().getName()), getWidth()), getHeight());
+        }
+
+        protected static long fingerprint(long fingerprint, long value) {
+            fingerprint = (fingerprint ^ value) * 0x9E3779B97F4A7C15L;
+            return fingerprint ^ fingerprint >>> 31;
+        }
+
+        protected static long fingerprint(long fingerprint, String value) {
+            return fingerprint(fingerprint(fingerprint, value.length()), value.hashCode());
+        }
+
+        protected static long fingerprint(long fingerprint, Paint paint) {
+            int typeface = getTypefaceIndex(paint.getTypeface());
+            if (typeface < 0 || paint.getShader() != null || paint.getColorFilter() != null || paint.getPathEffect() != null || paint.getMaskFilter() != null || paint.getXfermode() != null)
+                return UNKNOWN_FINGERPRINT;
+            fingerprint = fingerprint(fingerprint, typeface);
+            fingerprint = fingerprint(fingerprint, paint.getTypeface() == null ? -1 : paint.getTypeface().getStyle());
+            fingerprint = fingerprint(fingerprint, paint.getColor());
+            fingerprint = fingerprint(fingerprint, paint.getFlags());
+            fingerprint = fingerprint(fingerprint, paint.getStyle().ordinal());
+            fingerprint = fingerprint(fingerprint, paint.getStrokeCap().ordinal());
+            fingerprint = fingerprint(fingerprint, paint.getStrokeJoin().ordinal());
+            fingerprint = fingerprint(fingerprint, Float.floatToIntBits(paint.getStrokeWidth()));
+            fingerprint = fingerprint(fingerprint, Float.floatToIntBits(paint.getStrokeMiter()));
+            fingerprint = fingerprint(fingerprint, Float.floatToIntBits(paint.getTextSize()));
+            fingerprint = fingerprint(fingerprint, Float.floatToIntBits(paint.getTextScaleX()));
+            fingerprint = fingerprint(fingerprint, Float.floatToIntBits(paint.getTextSkewX()));
+            return fingerprint(fingerprint, paint.getTextAlign().ordinal());
+        }
+
+        private static int getTypefaceIndex(Typeface typeface) {
+            if (typeface == null)
+                return 0;
+            Typeface[] typefaces = {Typeface.DEFAULT, Typeface.DEFAULT_BOLD, Typeface.SANS_SERIF, Typeface.SERIF, Typeface.MONOSPACE};
+            for (int i = 0; i < typefaces.length; i++)
+                if (typeface == typefaces[i])
+                    return i + 1;
+            return -1;
+        }
+
     }
 }
@@ -7,6 +7,7 @@ import com.francescoz.fract.utils.FractColor;
 import com.francescoz.fract.utils.FractInput;
 import com.francescoz.fract.utils.FractMatrix;
 import com.francescoz.fract.utils.FractOrigin;
+import com.francescoz.fract.utils.FractPixel;
 import com.francescoz.fract.utils.FractSizing;
 
 public abstract class FractScreen {
@@ -14,6 +15,17 @@ public abstract class FractScreen {
     public final Viewport viewport;
     public FractColor clearColor;
     public FractInput.Listener inputListener;
+    final FractResourceLoader.Source resourceSource = new FractResourceLoader.Source() {
+        @Override
+        public FractResourcesDef createResources(FractPixel resolution) {
+            return FractScreen.this.createResources(resolution);
+        }
+
+        @Override
+        public boolean accepts(FractResources.PackedResourceDef packedResourceDef) {
+            return true;
+        }
+    };
 
     public FractScreen(FractColor clearColor, Viewport viewport, FractInput.Listener inputListener) {
         this.clearColor = clearColor;
@@ -59,6 +71,26 @@ public abstract class FractScreen {
     protected void size() {
     }
 
+    /**
+     * Called on the resource loader thread, except for a LoadingScreen, whose small set is built and uploaded synchronously on the GL thread.
+     */
+    protected FractResourcesDef createResources(FractPixel resolution) {
+        return null;
+    }
+
+    /**
+     * Return true when createResources builds a bundle for this screen. Screens without one are switched to immediately.
+     */
+    protected boolean hasResources() {
+        return false;
+    }
+
+    protected void pause() {
+    }
+
+    protected void resume() {
+    }
+
     final void resize(int width, int height) {
         viewport.size(width, height);
         size();
@@ -91,6 +123,34 @@ public abstract class FractScreen {
 
     }
 
+    public static class LoadingScreen extends FractScreen {
+
+        private float progress;
+
+        public final float getProgress() {
+            return progress;
+        }
+
+        final void setProgress(float progress) {
+            this.progress = progress;
+        }
+
+        @Override
+        protected void render(FractEngine.Drawer drawer, float deltaTime) {
+        }
+
+        @Override
+        protected void hide() {
+
+        }
+
+        @Override
+        protected void show() {
+
+        }
+
+    }
+
     public static final class Viewport implements FractCoder.Codable {
 
         public static final FractCoder.Decoder<Viewport> DECODER = new FractCoder.Decoder<Viewport>() {
@@ -145,7 +205,7 @@ public abstract class FractScreen {
             return sizing == FractSizing.FIXED_W ? fixedSize * aspect : fixedSize;
         }
 
-        private void size(int width, int height) {
+        void size(int width, int height) {
             aspect = height / (float) width;
         }
 
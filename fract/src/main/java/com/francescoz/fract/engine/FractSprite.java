@@ -22,8 +22,11 @@ public class FractSprite implements FractCoder.Codable {
         verticalOrigin = FractOrigin.CENTER;
     }
 
-    FractResources.Drawable pullCache(FractResources resources) {
-        if (cachedDrawable != null && resources == cachedDrawable.getResources() && cachedDrawable.key.equals(drawableKey))
+    FractResources.Drawable pullCache(FractResources resources, FractResources screenResources) {
+        if (cachedDrawable == null || !cachedDrawable.key.equals(drawableKey))
+            return null;
+        FractResources owner = cachedDrawable.getResources();
+        if (owner != null && (owner == resources || owner == screenResources))
             return cachedDrawable;
         return null;
     }
@@ -0,0 +1,84 @@
+package com.francescoz.fract.engine;
+
+import android.os.Build;
+import android.os.Trace;
+import android.util.Log;
+
+import java.lang.reflect.Method;
+
+final class FractTrace {
+
+    static final String RELOAD_RESOURCES = "FractEngine.reloadResources";
+    static final String LOAD_RESOURCES = "FractResources.load";
+    static final String CREATE_RESOURCES = "FractResources.create";
+    static final String SPLIT_AND_PACK = "FractDrawablePack.splitAndPack";
+    static final String RASTERISE = "FractDrawablePack.rasterise";
+    static final String COMPOSE_PAGE = "FractDrawablePack.composePage";
+    static final String ETC1_ENCODE = "FractDrawablePack.encodeEtc1";
+    static final String WRITE_CACHE = "FractResources.writeCache";
+    static final String TEXTURE_UPLOAD = "FractResources.uploadTexture";
+    static final String UPLOAD_RESOURCES = "FractResourceLoader.upload";
+    static final String SCREEN_RENDER = "FractScreen.render";
+    static final String MASKER_DRAW = "FractBatch.Masker.draw";
+
+    private static final int ASYNC_API = 29;
+    private static volatile boolean enabled;
+    private static volatile Method beginAsyncSection, endAsyncSection;
+    private static Boolean requested;
+
+    private FractTrace() {
+    }
+
+    static synchronized void setEnabled(boolean enabled) {
+        if (requested != null) {
+            if (requested != enabled)
+                Log.d("FractTrace", "Tracing already " + (requested ? "enabled" : "disabled") + " for this process, ignoring");
+            return;
+        }
+        requested = enabled;
+        if (!enabled || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2)
+            return;
+        if (Build.VERSION.SDK_INT >= ASYNC_API) {
+            try {
+                beginAsyncSection = Trace.class.getMethod("beginAsyncSection", String.class, int.class);
+                endAsyncSection = Trace.class.getMethod("endAsyncSection", String.class, int.class);
+            } catch (NoSuchMethodException e) {
+                Log.d("FractTrace", "Async trace sections not available");
+            }
+        }
+        FractTrace.enabled = true;
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    static void begin(String name) {
+        if (enabled)
+            Trace.beginSection(name);
+    }
+
+    static void end() {
+        if (enabled)
+            Trace.endSection();
+    }
+
+    static void beginAsync(String name, int cookie) {
+        if (enabled && beginAsyncSection != null)
+            invoke(beginAsyncSection, name, cookie);
+    }
+
+    static void endAsync(String name, int cookie) {
+        if (enabled && endAsyncSection != null)
+            invoke(endAsyncSection, name, cookie);
+    }
+
+    private static void invoke(Method method, String name, int cookie) {
+        try {
+            method.invoke(null, name, cookie);
+        } catch (Exception e) {
+            beginAsyncSection = endAsyncSection = null;
+        }
+    }
+
+}
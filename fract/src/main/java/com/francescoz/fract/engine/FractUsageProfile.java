@@ -0,0 +1,260 @@
+package com.francescoz.fract.engine;
+
+import com.francescoz.fract.utils.FractCoder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+public final class FractUsageProfile {
+
+    private static final String CODER_TAG = "fractprofilev1";
+
+    private final HashMap<String, HashMap<String, Integer>> transitions;
+    private final HashMap<String, HashMap<String, Integer>> screens;
+    private final HashSet<String> drawnInFrame;
+    private HashMap<String, Integer> currentScreen;
+    private String lastKey;
+
+    public FractUsageProfile() {
+        transitions = new HashMap<>();
+        screens = new HashMap<>();
+        drawnInFrame = new HashSet<>();
+    }
+
+    public static FractUsageProfile read(File file) throws IOException {
+        FractCoder coder = new FractCoder();
+        coder.parseAndMerge(file);
+        return decode(coder.getNodeRoot());
+    }
+
+    public static FractUsageProfile read(BufferedReader bufferedReader) throws IOException {
+        FractCoder coder = new FractCoder();
+        coder.parseAndMerge(bufferedReader);
+        return decode(coder.getNodeRoot());
+    }
+
+    private static FractUsageProfile decode(FractCoder.Node root) {
+        if (!CODER_TAG.equals(root.stringData.get("coderTag")))
+            throw new RuntimeException("Unsupported usage profile");
+        FractCoder.Node keysNode = root.nodeData.get("keys", new FractCoder.Node());
+        String[] keys = new String[keysNode.stringData.getKeySet().size()];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = keysNode.stringData.get("k" + i);
+        FractUsageProfile profile = new FractUsageProfile();
+        for (Map.Entry<String, Integer> entry : root.nodeData.get("transitions", new FractCoder.Node()).integerData.getEntrySet()) {
+            String[] pair = entry.getKey().split("-");
+            profile.addTransition(keys[Integer.parseInt(pair[0])], keys[Integer.parseInt(pair[1])], entry.getValue());
+        }
+        for (FractCoder.Node screenNode : root.nodeData.get("screens", new FractCoder.Node()).nodeData.getValuesSet()) {
+            HashMap<String, Integer> screen = profile.getScreen(screenNode.stringData.get("name"));
+            for (Map.Entry<String, Integer> entry : screenNode.integerData.getEntrySet())
+                screen.put(keys[Integer.parseInt(entry.getKey())], entry.getValue());
+        }
+        return profile;
+    }
+
+    public synchronized void write(File file) throws IOException {
+        HashMap<String, Integer> keyIndices = new HashMap<>();
+        FractCoder.Node keysNode = new FractCoder.Node();
+        FractCoder.Node transitionsNode = new FractCoder.Node();
+        for (Map.Entry<String, HashMap<String, Integer>> entry : transitions.entrySet()) {
+            int first = indexOf(entry.getKey(), keyIndices, keysNode);
+            for (Map.Entry<String, Integer> transition : entry.getValue().entrySet())
+                transitionsNode.integerData.put(first + "-" + indexOf(transition.getKey(), keyIndices, keysNode), transition.getValue());
+        }
+        FractCoder.Node screensNode = new FractCoder.Node();
+        int screenIndex = 0;
+        for (Map.Entry<String, HashMap<String, Integer>> entry : screens.entrySet()) {
+            FractCoder.Node screenNode = new FractCoder.Node();
+            screenNode.stringData.put("name", entry.getKey());
+            for (Map.Entry<String, Integer> usage : entry.getValue().entrySet())
+                screenNode.integerData.put(Integer.toString(indexOf(usage.getKey(), keyIndices, keysNode)), usage.getValue());
+            screensNode.nodeData.put("s" + screenIndex++, screenNode);
+        }
+        FractCoder coder = new FractCoder();
+        FractCoder.Node root = coder.getNodeRoot();
+        root.stringData.put("coderTag", CODER_TAG);
+        root.nodeData.put("keys", keysNode);
+        root.nodeData.put("transitions", transitionsNode);
+        root.nodeData.put("screens", screensNode);
+        coder.write(file);
+    }
+
+    private static int indexOf(String key, HashMap<String, Integer> keyIndices, FractCoder.Node keysNode) {
+        Integer index = keyIndices.get(key);
+        if (index == null) {
+            index = keyIndices.size();
+            keyIndices.put(key, index);
+            keysNode.stringData.put("k" + index, key);
+        }
+        return index;
+    }
+
+    public synchronized void clear() {
+        transitions.clear();
+        screens.clear();
+        drawnInFrame.clear();
+        currentScreen = null;
+        lastKey = null;
+    }
+
+    synchronized void beginFrame(FractScreen screen) {
+        currentScreen = getScreen(screen.getClass().getName());
+        drawnInFrame.clear();
+        lastKey = null;
+    }
+
+    synchronized void record(String key) {
+        if (currentScreen == null)
+            return;
+        if (drawnInFrame.add(key)) {
+            Integer frames = currentScreen.get(key);
+            currentScreen.put(key, frames == null ? 1 : frames + 1);
+        }
+        if (lastKey != null && !lastKey.equals(key))
+            addTransition(lastKey, key, 1);
+        lastKey = key;
+    }
+
+    private HashMap<String, Integer> getScreen(String name) {
+        HashMap<String, Integer> screen = screens.get(name);
+        if (screen == null) {
+            screen = new HashMap<>();
+            screens.put(name, screen);
+        }
+        return screen;
+    }
+
+    private void addTransition(String from, String to, int count) {
+        String first = from.compareTo(to) < 0 ? from : to;
+        String second = first == from ? to : from;
+        HashMap<String, Integer> targets = transitions.get(first);
+        if (targets == null) {
+            targets = new HashMap<>();
+            transitions.put(first, targets);
+        }
+        Integer current = targets.get(second);
+        targets.put(second, current == null ? count : current + count);
+    }
+
+    synchronized FractResourcesDef.Drawable[] arrange(FractResourcesDef.Drawable[] drawableDefs) {
+        FractResourcesDef.Drawable[] arranged = drawableDefs.clone();
+        Arrays.sort(arranged, FractDrawablePack.PRIORITY_COMPARATOR);
+        int from = 0;
+        while (from < arranged.length) {
+            int to = from + 1;
+            while (to < arranged.length && arranged[to].priority == arranged[from].priority)
+                to++;
+            if (to - from > 2)
+                arrange(arranged, from, to);
+            from = to;
+        }
+        return arranged;
+    }
+
+    private void arrange(FractResourcesDef.Drawable[] drawableDefs, int from, int to) {
+        int count = to - from;
+        HashMap<String, Integer> indices = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++)
+            indices.put(drawableDefs[from + i].key, i);
+        final HashMap<Long, Long> weights = new HashMap<>();
+        for (Map.Entry<String, HashMap<String, Integer>> entry : transitions.entrySet()) {
+            Integer first = indices.get(entry.getKey());
+            if (first == null)
+                continue;
+            for (Map.Entry<String, Integer> transition : entry.getValue().entrySet()) {
+                Integer second = indices.get(transition.getKey());
+                if (second != null)
+                    addWeight(weights, first, second, transition.getValue());
+            }
+        }
+        int[] used = new int[count];
+        int[] frames = new int[count];
+        for (HashMap<String, Integer> screen : screens.values()) {
+            int usedCount = 0;
+            for (Map.Entry<String, Integer> usage : screen.entrySet()) {
+                Integer index = indices.get(usage.getKey());
+                if (index != null) {
+                    used[usedCount] = index;
+                    frames[usedCount++] = usage.getValue();
+                }
+            }
+            for (int i = 0; i < usedCount; i++)
+                for (int j = i + 1; j < usedCount; j++)
+                    addWeight(weights, used[i], used[j], Math.min(frames[i], frames[j]));
+        }
+        if (weights.isEmpty())
+            return;
+        List<Long> edges = new ArrayList<>(weights.keySet());
+        Collections.sort(edges, new Comparator<Long>() {
+            @Override
+            public int compare(Long o1, Long o2) {
+                int weight = weights.get(o2).compareTo(weights.get(o1));
+                return weight != 0 ? weight : o1.compareTo(o2);
+            }
+        });
+        final List<List<Integer>> chains = new ArrayList<>(count);
+        final long[] chainWeights = new long[count];
+        int[] chainOf = new int[count];
+        for (int i = 0; i < count; i++) {
+            List<Integer> chain = new ArrayList<>();
+            chain.add(i);
+            chains.add(chain);
+            chainOf[i] = i;
+        }
+        for (Long edge : edges) {
+            int a = (int) (edge >> 32);
+            int b = (int) (long) edge;
+            int chainA = chainOf[a];
+            int chainB = chainOf[b];
+            if (chainA == chainB) {
+                chainWeights[chainA] += weights.get(edge);
+                continue;
+            }
+            List<Integer> first = chains.get(chainA);
+            List<Integer> second = chains.get(chainB);
+            if (first.get(0) == a)
+                Collections.reverse(first);
+            if (second.get(second.size() - 1) == b)
+                Collections.reverse(second);
+            for (Integer member : second)
+                chainOf[member] = chainA;
+            first.addAll(second);
+            second.clear();
+            chainWeights[chainA] += chainWeights[chainB] + weights.get(edge);
+        }
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            if (!chains.get(i).isEmpty())
+                order.add(i);
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                if (chainWeights[o1] != chainWeights[o2])
+                    return chainWeights[o1] > chainWeights[o2] ? -1 : 1;
+                return o1.compareTo(o2);
+            }
+        });
+        FractResourcesDef.Drawable[] original = Arrays.copyOfRange(drawableDefs, from, to);
+        int position = from;
+        for (Integer chain : order)
+            for (Integer member : chains.get(chain))
+                drawableDefs[position++] = original[member];
+    }
+
+    private static void addWeight(HashMap<Long, Long> weights, int a, int b, long weight) {
+        Long edge = a < b ? (long) a << 32 | b : (long) b << 32 | a;
+        Long current = weights.get(edge);
+        weights.put(edge, current == null ? weight : current + weight);
+    }
+
+}
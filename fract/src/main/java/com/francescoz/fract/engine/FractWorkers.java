@@ -0,0 +1,56 @@
+package com.francescoz.fract.engine;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+final class FractWorkers {
+
+    private static ExecutorService pool;
+    private static int parallelism;
+
+    private FractWorkers() {
+    }
+
+    static synchronized ExecutorService get() {
+        if (pool == null) {
+            parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            pool = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+                private int count;
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "FractWorker-" + count++);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return pool;
+    }
+
+    static synchronized int getParallelism() {
+        get();
+        return parallelism;
+    }
+
+    static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for worker");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new RuntimeException("Worker failed", cause);
+        }
+    }
+
+}
@@ -24,15 +24,15 @@ public abstract class FractColor implements FractCoder.Codable {
     }
 
     public static float getR(int color) {
-        return Color.red(color) / 255.0f;
+        return ((color >> 16) & 0xFF) / 255.0f;
     }
 
     public static float getG(int color) {
-        return Color.green(color) / 255.0f;
+        return ((color >> 8) & 0xFF) / 255.0f;
     }
 
     public static float getB(int color) {
-        return Color.blue(color) / 255.0f;
+        return (color & 0xFF) / 255.0f;
     }
 
     public static final float packFloat(int c) {
@@ -103,7 +103,7 @@ public abstract class FractColor implements FractCoder.Codable {
         }
 
         public static int packInt(float r, float g, float b, float a) {
-            return Color.argb((int) (a * 255), (int) (r * 255), (int) (g * 255), (int) (b * 255));
+            return ((int) (a * 255) << 24) | ((int) (r * 255) << 16) | ((int) (g * 255) << 8) | (int) (b * 255);
         }
 
         public void set(float r, float g, float b, float a) {
@@ -139,10 +139,10 @@ public abstract class FractColor implements FractCoder.Codable {
 
         @Override
         public void set(int color) {
-            r = Color.red(color) / 255.0f;
-            g = Color.green(color) / 255.0f;
-            b = Color.blue(color) / 255.0f;
-            a = Color.alpha(color) / 255.0f;
+            r = getR(color);
+            g = getG(color);
+            b = getB(color);
+            a = (color >>> 24) / 255.0f;
         }
 
         public void set(RGB color) {
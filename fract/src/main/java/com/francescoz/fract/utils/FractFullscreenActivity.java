@@ -31,6 +31,24 @@ public abstract class FractFullscreenActivity extends Activity {
         setContentView(engine.getView());
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+        engine.onPause();
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        engine.onResume();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        engine.onTrimMemory(level);
+    }
+
     public FractEngine getEngine() {
         return engine;
     }
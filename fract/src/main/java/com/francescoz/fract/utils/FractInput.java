@@ -158,12 +158,19 @@ public final class FractInput {
         private final Finger[] fingers;
 
         public FingerDispatcher() {
-            fingers = new Finger[MAX_FINGERS];
+            fingers = createFingers();
         }
 
         public FingerDispatcher(Listener... listeners) {
             super(listeners);
-            fingers = new Finger[MAX_FINGERS];
+            fingers = createFingers();
+        }
+
+        private static Finger[] createFingers() {
+            Finger[] fingers = new Finger[MAX_FINGERS];
+            for (int i = 0; i < MAX_FINGERS; i++)
+                fingers[i] = new Finger(i);
+            return fingers;
         }
 
         public Finger get(int index) {
@@ -78,7 +78,11 @@ public final class FractMatrix implements FractCoder.Codable {
     }
 
     public void transformArray(float[] array) {
-        int pointCount = array.length / 2;
+        transformArray(array, array.length);
+    }
+
+    public void transformArray(float[] array, int length) {
+        int pointCount = length / 2;
         int v = 0;
         for (int i = 0; i < pointCount; i++) {
             int iX = v++;
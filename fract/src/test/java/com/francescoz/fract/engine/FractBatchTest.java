@@ -0,0 +1,144 @@
+package com.francescoz.fract.engine;
+
+import android.opengl.GLES20;
+
+import com.francescoz.fract.utils.FractPixel;
+import com.francescoz.fract.utils.FractSizing;
+import com.francescoz.fract.utils.FractTransform;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class FractBatchTest {
+
+    private static final int PAGE_SIZE = 256;
+    private static final int CELL = 64;
+
+    private FractRecordingGL gl;
+    private FractBatch batch;
+    private FractResources resources;
+    private FractScreen.Viewport viewport;
+
+    @Before
+    public void setUp() {
+        gl = new FractRecordingGL();
+        batch = new FractBatch(gl, 16);
+        batch.create();
+        FractDrawablePack[] packs = new FractDrawablePack[2];
+        ByteBuffer data = ByteBuffer.allocate(PAGE_SIZE * PAGE_SIZE * 4);
+        for (int p = 0; p < packs.length; p++)
+            packs[p] = new FractDrawablePack(new FractDrawablePack.PackedDrawable[]{
+                    new FractDrawablePack.PackedDrawable("p" + p + "a", 0, 0, CELL, CELL, false),
+                    new FractDrawablePack.PackedDrawable("p" + p + "b", CELL, 0, CELL, CELL, false)
+            }, PAGE_SIZE, PAGE_SIZE, FractDrawablePack.Format.RGBA_8888, data.duplicate(), null);
+        resources = FractResources.create(gl, new FractResources.PackedResourceDef(packs, new long[packs.length], 0, new FractPixel(PAGE_SIZE, PAGE_SIZE), FractResourcesDef.Filter.DEFAULT, false));
+        viewport = new FractScreen.Viewport();
+        viewport.sizing = FractSizing.FIXED_WH;
+        viewport.size(PAGE_SIZE, PAGE_SIZE);
+        gl.reset();
+    }
+
+    private void draw(String key, float x, float y, float scale) {
+        FractTransform transform = new FractTransform();
+        transform.translation.set(x, y);
+        transform.scale.set(scale);
+        batch.draw(resources.getDrawable(key), viewport, null, transform, null, null, null);
+    }
+
+    @Test
+    public void batchesSpritesSharingATexture() {
+        draw("p0a", 0.25f, 0.25f, 0.25f);
+        draw("p0b", 0.75f, 0.25f, 0.25f);
+        draw("p0a", 0.25f, 0.75f, 0.25f);
+        batch.flush(FractBatch.FLUSH_FRAME);
+        assertEquals(1, gl.getDrawCallCount());
+        assertEquals(18, gl.drawCalls.get(0).indexCount);
+        assertEquals(1, gl.getTextureBinds());
+        assertEquals(3 * 4 * 5, gl.getUploadedVertexFloats());
+    }
+
+    @Test
+    public void flushesOnTextureSwitch() {
+        draw("p0a", 0.25f, 0.25f, 0.25f);
+        draw("p1a", 0.75f, 0.25f, 0.25f);
+        draw("p1b", 0.75f, 0.75f, 0.25f);
+        batch.flush(FractBatch.FLUSH_FRAME);
+        batch.endFrame();
+        assertEquals(2, gl.getDrawCallCount());
+        assertEquals(6, gl.drawCalls.get(0).indexCount);
+        assertEquals(12, gl.drawCalls.get(1).indexCount);
+        assertNotEquals(gl.drawCalls.get(0).texture, gl.drawCalls.get(1).texture);
+        assertEquals(2, gl.getTextureBinds());
+        assertEquals(2, batch.getDrawCalls());
+        assertEquals(3, batch.getSpritesDrawn());
+        assertEquals(2, batch.getTextureBinds());
+    }
+
+    @Test
+    public void reusesBoundTexturesAcrossFlushes() {
+        draw("p0a", 0.25f, 0.25f, 0.25f);
+        draw("p1a", 0.75f, 0.25f, 0.25f);
+        draw("p0a", 0.25f, 0.75f, 0.25f);
+        batch.flush(FractBatch.FLUSH_FRAME);
+        assertEquals(3, gl.getDrawCallCount());
+        assertEquals(2, gl.getTextureBinds());
+        assertEquals(gl.drawCalls.get(0).texture, gl.drawCalls.get(2).texture);
+    }
+
+    @Test
+    public void uploadsTransformedVertices() {
+        draw("p0b", 0.5f, 0.5f, 0.5f);
+        batch.flush(FractBatch.FLUSH_FRAME);
+        assertEquals(1, gl.getDrawCallCount());
+        assertEquals(GLES20.GL_TRIANGLES, gl.drawCalls.get(0).mode);
+        float[] vertices = gl.drawCalls.get(0).vertices;
+        assertEquals(4 * 5, vertices.length);
+        float minX = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, minY = Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        float minU = Float.MAX_VALUE, maxU = -Float.MAX_VALUE, minV = Float.MAX_VALUE, maxV = -Float.MAX_VALUE;
+        for (int i = 0; i < vertices.length; i += 5) {
+            minX = Math.min(minX, vertices[i]);
+            maxX = Math.max(maxX, vertices[i]);
+            minY = Math.min(minY, vertices[i + 1]);
+            maxY = Math.max(maxY, vertices[i + 1]);
+            minU = Math.min(minU, vertices[i + 3]);
+            maxU = Math.max(maxU, vertices[i + 3]);
+            minV = Math.min(minV, vertices[i + 4]);
+            maxV = Math.max(maxV, vertices[i + 4]);
+        }
+        assertEquals(-0.5f, minX, 1e-5f);
+        assertEquals(0.5f, maxX, 1e-5f);
+        assertEquals(-0.5f, minY, 1e-5f);
+        assertEquals(0.5f, maxY, 1e-5f);
+        assertEquals(CELL / (float) PAGE_SIZE, minU, 1e-5f);
+        assertEquals(2 * CELL / (float) PAGE_SIZE, maxU, 1e-5f);
+        assertEquals(0, minV, 1e-5f);
+        assertEquals(CELL / (float) PAGE_SIZE, maxV, 1e-5f);
+    }
+
+    @Test
+    public void fillsSmallBatchesWithQuadsWithinTheIndexBuffer() {
+        batch = new FractBatch(gl, 1);
+        batch.create();
+        gl.reset();
+        for (int i = 0; i < 4; i++)
+            draw("p0a", 0.125f + i * 0.25f, 0.5f, 0.25f);
+        batch.flush(FractBatch.FLUSH_FRAME);
+        assertEquals(1, gl.getDrawCallCount());
+        assertEquals(24, gl.drawCalls.get(0).indexCount);
+        assertEquals(4 * 4 * 5, gl.drawCalls.get(0).vertices.length);
+    }
+
+    @Test
+    public void skipsSpritesOutsideTheViewport() {
+        draw("p0a", 4, 4, 0.25f);
+        batch.flush(FractBatch.FLUSH_FRAME);
+        assertEquals(0, gl.getDrawCallCount());
+        assertEquals(0, gl.getTextureBinds());
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.francescoz.fract.engine;
+
+import android.graphics.Canvas;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class FractDrawablePackTest {
+
+    private static final int BORDER = 4;
+
+    private static FractResourcesDef.Drawable[] create(int count, int width, int height) {
+        FractResourcesDef.Drawable[] drawableDefs = new FractResourcesDef.Drawable[count];
+        for (int i = 0; i < count; i++)
+            drawableDefs[i] = new SizedDrawable(i, width, height);
+        return drawableDefs;
+    }
+
+    private static void assertWithin(FractDrawablePack.PackedBitmap[] layout, int maximumSize) {
+        assertNotNull(layout);
+        for (FractDrawablePack.PackedBitmap packedBitmap : layout) {
+            assertTrue(packedBitmap.topLeftVertex.x >= 0 && packedBitmap.topLeftVertex.y >= 0);
+            assertTrue(packedBitmap.bottomRightVertex.x <= maximumSize && packedBitmap.bottomRightVertex.y <= maximumSize);
+        }
+    }
+
+    @Test
+    public void laysOutAMaximumSizedDrawable() {
+        FractDrawablePack.PackedBitmap[] layout = FractDrawablePack.layout(create(1, 2048, 2048), 2048, BORDER);
+        assertWithin(layout, 2048);
+        assertEquals(1, layout.length);
+    }
+
+    @Test
+    public void laysOutWhenTheBorderedAreaExceedsThePage() {
+        FractResourcesDef.Drawable[] drawableDefs = create(361, 104, 104);
+        FractDrawablePack.PackedBitmap[] layout = FractDrawablePack.layout(drawableDefs, 2048, BORDER);
+        assertWithin(layout, 2048);
+        assertEquals(drawableDefs.length, layout.length);
+    }
+
+    @Test
+    public void picksTheSmallestPageThatFits() {
+        FractDrawablePack.PackedBitmap[] layout = FractDrawablePack.layout(create(4, 60, 60), 2048, BORDER);
+        assertWithin(layout, 128);
+    }
+
+    private static final class SizedDrawable extends FractResourcesDef.Drawable {
+
+        private final int width, height;
+
+        SizedDrawable(int index, int width, int height) {
+            super(0, "drawable" + index);
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public void draw(Canvas canvas) {
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.francescoz.fract.engine;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FractLifecycleTest {
+
+    private List<String> log;
+    private FractLifecycle lifecycle;
+
+    @Before
+    public void setUp() {
+        log = new ArrayList<>();
+        lifecycle = new FractLifecycle(new FractLifecycle.Surface() {
+            @Override
+            public void onPause() {
+                log.add("surface.onPause");
+            }
+
+            @Override
+            public void onResume() {
+                log.add("surface.onResume");
+            }
+
+            @Override
+            public void queueEvent(Runnable event) {
+                log.add("queue");
+                event.run();
+            }
+        }, new FractLifecycle.Listener() {
+            @Override
+            public void onPause() {
+                log.add("listener.onPause");
+            }
+
+            @Override
+            public void onResume() {
+                log.add("listener.onResume");
+            }
+
+            @Override
+            public void onReleaseMemory() {
+                log.add("listener.onReleaseMemory");
+            }
+        });
+    }
+
+    @Test
+    public void queuesPauseBeforePausingTheSurface() {
+        lifecycle.pause();
+        assertTrue(lifecycle.isPaused());
+        assertEquals(Arrays.asList("queue", "listener.onPause", "surface.onPause"), log);
+    }
+
+    @Test
+    public void queuesResumeAfterResumingTheSurface() {
+        lifecycle.pause();
+        log.clear();
+        lifecycle.resume();
+        assertFalse(lifecycle.isPaused());
+        assertEquals(Arrays.asList("surface.onResume", "queue", "listener.onResume"), log);
+    }
+
+    @Test
+    public void pauseIsIdempotent() {
+        lifecycle.pause();
+        lifecycle.pause();
+        assertEquals(Arrays.asList("queue", "listener.onPause", "surface.onPause"), log);
+    }
+
+    @Test
+    public void resumeIsIdempotent() {
+        lifecycle.resume();
+        assertTrue(log.isEmpty());
+        lifecycle.pause();
+        lifecycle.resume();
+        lifecycle.resume();
+        assertEquals(Arrays.asList("queue", "listener.onPause", "surface.onPause", "surface.onResume", "queue", "listener.onResume"), log);
+    }
+
+    @Test
+    public void releasesMemoryOnlyUnderPressure() {
+        assertFalse(FractLifecycle.shouldReleaseMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE));
+        assertTrue(FractLifecycle.shouldReleaseMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW));
+        assertTrue(FractLifecycle.shouldReleaseMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL));
+        assertFalse(FractLifecycle.shouldReleaseMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN));
+        assertTrue(FractLifecycle.shouldReleaseMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND));
+        assertTrue(FractLifecycle.shouldReleaseMemory(ComponentCallbacks2.TRIM_MEMORY_MODERATE));
+        assertTrue(FractLifecycle.shouldReleaseMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE));
+    }
+
+    @Test
+    public void queuesReleaseOnTrimMemory() {
+        lifecycle.trimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertTrue(log.isEmpty());
+        lifecycle.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(Arrays.asList("queue", "listener.onReleaseMemory"), log);
+    }
+
+}
@@ -0,0 +1,385 @@
+package com.francescoz.fract.engine;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+final class FractRecordingGL implements FractGL {
+
+    private static final int MAX_ATTRIBS = 8;
+
+    final List<DrawCall> drawCalls;
+    private final Map<Integer, short[]> elementBuffers;
+    private final Map<Integer, Integer> uniforms;
+    private final int[] boundTextures;
+    private final Buffer[] attribPointers;
+    private final int[] attribStrides;
+    private final boolean[] enabledAttribs;
+    private final int maxTextureSize;
+    private int nextName;
+    private int activeUnit;
+    private int elementBuffer;
+    private int program;
+    private int textureBinds;
+    private int textureUploads;
+    private long textureUploadBytes;
+    private int programSwitches;
+    private int framebufferBinds;
+    private int blendChanges;
+    private int capabilityChanges;
+    private int clears;
+
+    FractRecordingGL(int maxTextureSize, int maxTextureUnits) {
+        this.maxTextureSize = maxTextureSize;
+        drawCalls = new ArrayList<>();
+        elementBuffers = new HashMap<>();
+        uniforms = new HashMap<>();
+        boundTextures = new int[maxTextureUnits];
+        attribPointers = new Buffer[MAX_ATTRIBS];
+        attribStrides = new int[MAX_ATTRIBS];
+        enabledAttribs = new boolean[MAX_ATTRIBS];
+        nextName = 1;
+    }
+
+    FractRecordingGL() {
+        this(2048, 8);
+    }
+
+    void reset() {
+        drawCalls.clear();
+        textureBinds = textureUploads = programSwitches = framebufferBinds = blendChanges = capabilityChanges = clears = 0;
+        textureUploadBytes = 0;
+    }
+
+    int getDrawCallCount() {
+        return drawCalls.size();
+    }
+
+    int getTextureBinds() {
+        return textureBinds;
+    }
+
+    int getTextureUploads() {
+        return textureUploads;
+    }
+
+    long getTextureUploadBytes() {
+        return textureUploadBytes;
+    }
+
+    int getProgramSwitches() {
+        return programSwitches;
+    }
+
+    int getFramebufferBinds() {
+        return framebufferBinds;
+    }
+
+    int getBlendChanges() {
+        return blendChanges;
+    }
+
+    int getCapabilityChanges() {
+        return capabilityChanges;
+    }
+
+    int getClears() {
+        return clears;
+    }
+
+    int getUploadedVertexFloats() {
+        int floats = 0;
+        for (DrawCall drawCall : drawCalls)
+            floats += drawCall.vertices.length;
+        return floats;
+    }
+
+    private void gen(int n, int[] names, int offset) {
+        for (int i = 0; i < n; i++)
+            names[offset + i] = nextName++;
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        activeUnit = texture - GLES20.GL_TEXTURE0;
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+    }
+
+    @Override
+    public void glBindAttribLocation(int program, int index, String name) {
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER)
+            elementBuffer = buffer;
+    }
+
+    @Override
+    public void glBindFramebuffer(int target, int framebuffer) {
+        framebufferBinds++;
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        boundTextures[activeUnit] = texture;
+        textureBinds++;
+    }
+
+    @Override
+    public void glBlendEquation(int mode) {
+        blendChanges++;
+    }
+
+    @Override
+    public void glBlendFunc(int sfactor, int dfactor) {
+        blendChanges++;
+    }
+
+    @Override
+    public void glBlendFuncSeparate(int srcRGB, int dstRGB, int srcAlpha, int dstAlpha) {
+        blendChanges++;
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER && data instanceof ShortBuffer) {
+            ShortBuffer source = ((ShortBuffer) data).duplicate();
+            short[] indices = new short[size / 2];
+            source.get(indices);
+            elementBuffers.put(elementBuffer, indices);
+        }
+    }
+
+    @Override
+    public void glClear(int mask) {
+        clears++;
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+    }
+
+    @Override
+    public void glCompressedTexImage2D(int target, int level, int internalformat, int width, int height, int border, int imageSize, Buffer data) {
+        textureUploads++;
+        textureUploadBytes += imageSize;
+    }
+
+    @Override
+    public int glCreateProgram() {
+        return nextName++;
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        return nextName++;
+    }
+
+    @Override
+    public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+    }
+
+    @Override
+    public void glDeleteTextures(int n, int[] textures, int offset) {
+    }
+
+    @Override
+    public void glDepthMask(boolean flag) {
+    }
+
+    @Override
+    public void glDetachShader(int program, int shader) {
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        short[] indices = elementBuffers.get(elementBuffer);
+        int vertexCount = 0;
+        if (indices != null)
+            for (int i = 0; i < count; i++)
+                vertexCount = Math.max(vertexCount, (indices[offset / 2 + i] & 0xFFFF) + 1);
+        float[] vertices = new float[0];
+        if (enabledAttribs[0] && attribPointers[0] instanceof FloatBuffer) {
+            FloatBuffer source = (FloatBuffer) attribPointers[0];
+            vertices = new float[Math.min(vertexCount * attribStrides[0] / 4, source.remaining())];
+            source.get(vertices);
+            source.position(source.position() - vertices.length);
+        }
+        Integer sampler = uniforms.get(0);
+        int unit = sampler == null ? 0 : sampler;
+        drawCalls.add(new DrawCall(mode, count, boundTextures[unit], program, vertices));
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        capabilityChanges++;
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        enabledAttribs[index] = true;
+    }
+
+    @Override
+    public void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level) {
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        gen(n, buffers, offset);
+    }
+
+    @Override
+    public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+        gen(n, framebuffers, offset);
+    }
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        gen(n, textures, offset);
+    }
+
+    @Override
+    public void glGenerateMipmap(int target) {
+    }
+
+    @Override
+    public void glGetIntegerv(int pname, int[] params, int offset) {
+        if (pname == GLES20.GL_MAX_TEXTURE_SIZE)
+            params[offset] = maxTextureSize;
+        else if (pname == GLES20.GL_MAX_TEXTURE_IMAGE_UNITS)
+            params[offset] = boundTextures.length;
+        else
+            params[offset] = 0;
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        return "";
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        params[offset] = GLES20.GL_TRUE;
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        return "";
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        params[offset] = GLES20.GL_TRUE;
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        return 0;
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+    }
+
+    @Override
+    public void glShaderSource(int shader, String string) {
+    }
+
+    @Override
+    public void glPixelStorei(int pname, int param) {
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height, int border, int format, int type, Buffer pixels) {
+        textureUploads++;
+        if (pixels instanceof ByteBuffer)
+            textureUploadBytes += pixels.remaining();
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+    }
+
+    @Override
+    public void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height, int format, int type, Buffer pixels) {
+        textureUploads++;
+        if (pixels instanceof ByteBuffer)
+            textureUploadBytes += pixels.remaining();
+    }
+
+    @Override
+    public void glUniform1f(int location, float x) {
+    }
+
+    @Override
+    public void glUniform1i(int location, int x) {
+        uniforms.put(location, x);
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        if (this.program != program)
+            programSwitches++;
+        this.program = program;
+    }
+
+    @Override
+    public void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, Buffer ptr) {
+        attribPointers[indx] = ptr instanceof FloatBuffer ? ((FloatBuffer) ptr).duplicate() : ptr;
+        attribStrides[indx] = stride;
+    }
+
+    @Override
+    public void texImage2D(int target, int level, int internalformat, Bitmap bitmap, int border) {
+        textureUploads++;
+    }
+
+    @Override
+    public void texSubImage2D(int target, int level, int xoffset, int yoffset, Bitmap bitmap) {
+        textureUploads++;
+    }
+
+    static final class DrawCall {
+
+        final int mode;
+        final int indexCount;
+        final int texture;
+        final int program;
+        final float[] vertices;
+
+        private DrawCall(int mode, int indexCount, int texture, int program, float[] vertices) {
+            this.mode = mode;
+            this.indexCount = indexCount;
+            this.texture = texture;
+            this.program = program;
+            this.vertices = vertices;
+        }
+
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.francescoz.fract.engine;
+
+import com.francescoz.fract.utils.FractPixel;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class FractResourcesTest {
+
+    private static final int PAGES = 4;
+    private static final int PAGE_SIZE = 64;
+    private static final long PAGE_BYTES = PAGE_SIZE * PAGE_SIZE * 4;
+
+    private static FractResources.PackedResourceDef define(boolean mapped) throws IOException {
+        FractDrawablePack[] packs = new FractDrawablePack[PAGES];
+        for (int p = 0; p < PAGES; p++) {
+            FractDrawablePack.PackedDrawable[] packedDrawables = {new FractDrawablePack.PackedDrawable("p" + p, 0, 0, PAGE_SIZE, PAGE_SIZE, false)};
+            packs[p] = new FractDrawablePack(packedDrawables, PAGE_SIZE, PAGE_SIZE, FractDrawablePack.Format.RGBA_8888, mapped ? map(PAGE_BYTES) : ByteBuffer.allocate((int) PAGE_BYTES), null);
+        }
+        return new FractResources.PackedResourceDef(packs, new long[PAGES], 0, new FractPixel(PAGE_SIZE, PAGE_SIZE), FractResourcesDef.Filter.DEFAULT, false);
+    }
+
+    private static FractResources upload(FractResources.PackedResourceDef packedResourceDef, long residencyBudget) {
+        FractResources.Uploader uploader = new FractResources.Uploader(new FractRecordingGL(), packedResourceDef, residencyBudget);
+        assertTrue(uploader.upload(Long.MAX_VALUE));
+        return uploader.getResources();
+    }
+
+    private static ByteBuffer map(long size) throws IOException {
+        File file = File.createTempFile("fract", ".page");
+        file.deleteOnExit();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(size);
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static FractResources.Texture texture(FractResources resources, int page) {
+        return resources.getDrawable("p" + page).texture;
+    }
+
+    private static int countResident(FractResources resources) {
+        int resident = 0;
+        for (int p = 0; p < PAGES; p++)
+            if (texture(resources, p).isResident())
+                resident++;
+        return resident;
+    }
+
+    private static void assertReloads(FractResources resources) {
+        int page = 0;
+        while (texture(resources, page).isResident())
+            page++;
+        FractResources.Texture missing = texture(resources, page);
+        missing.lastUsedFrame = 5;
+        missing.requested = true;
+        assertTrue(resources.updateResidency(5, Long.MAX_VALUE));
+        assertTrue(missing.isResident());
+        assertEquals(2, countResident(resources));
+    }
+
+    @Test
+    public void evictsHeapPagesOnceTheCacheIsWritten() throws IOException, InterruptedException {
+        FractResources.PackedResourceDef packedResourceDef = define(false);
+        FractResources resources = upload(packedResourceDef, 2 * PAGE_BYTES);
+        for (int p = 0; p < PAGES; p++)
+            assertFalse(texture(resources, p).isEvictable());
+        assertEquals(PAGES, countResident(resources));
+        File directory = File.createTempFile("fract", ".cache");
+        assertTrue(directory.delete() && directory.mkdir());
+        FractCacheWriter cacheWriter = new FractCacheWriter(new File(directory, "cache"), 1);
+        cacheWriter.write(packedResourceDef, PAGE_SIZE);
+        FractResources.PackedResourceDef mapped = null;
+        for (int i = 0; i < 500 && (mapped = cacheWriter.takeMapped(packedResourceDef)) == null; i++)
+            Thread.sleep(10);
+        assertNotNull(mapped);
+        resources.adopt(mapped);
+        assertTrue(resources.updateResidency(5, Long.MAX_VALUE));
+        assertEquals(2, countResident(resources));
+        for (int p = 0; p < PAGES; p++)
+            if (texture(resources, p).isResident())
+                assertTrue(texture(resources, p).isEvictable());
+        assertReloads(resources);
+        for (File file : directory.listFiles())
+            file.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void evictsMappedPagesOverBudget() throws IOException {
+        FractResources resources = upload(define(true), 2 * PAGE_BYTES);
+        for (int p = 0; p < PAGES; p++)
+            if (texture(resources, p).isResident())
+                assertTrue(texture(resources, p).isEvictable());
+        assertEquals(2, countResident(resources));
+        assertReloads(resources);
+    }
+
+    @Test
+    public void keepsTheContentVersionInTheCache() throws IOException {
+        FractDrawablePack[] packs = {new FractDrawablePack(new FractDrawablePack.PackedDrawable[]{new FractDrawablePack.PackedDrawable("p0", 0, 0, PAGE_SIZE, PAGE_SIZE, false)}, PAGE_SIZE, PAGE_SIZE, FractDrawablePack.Format.RGBA_8888, ByteBuffer.allocate((int) PAGE_BYTES), null)};
+        FractResources.PackedResourceDef packedResourceDef = new FractResources.PackedResourceDef(packs, new long[]{1}, 2, new FractPixel(PAGE_SIZE, PAGE_SIZE), FractResourcesDef.Filter.DEFAULT, false);
+        packedResourceDef.contentVersion = 1234567890123L;
+        File file = File.createTempFile("fract", ".cache");
+        file.deleteOnExit();
+        FractResources.save(packedResourceDef, PAGE_SIZE, file);
+        FractResources.PackedResourceDef loaded = FractResources.load(file, PAGE_SIZE);
+        assertNotNull(loaded);
+        assertEquals(1234567890123L, loaded.contentVersion);
+        assertEquals(2, loaded.settingsFingerprint);
+        assertEquals(1, loaded.fingerprints[0]);
+    }
+
+}